@@ -0,0 +1,206 @@
+package io.github.mayhewsw.benchmarks;
+
+import edu.illinois.cs.cogcomp.core.datastructures.Pair;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+import edu.illinois.cs.cogcomp.core.utilities.SerializationHelper;
+import io.github.mayhewsw.TextFileIndexer;
+import io.github.mayhewsw.utils.ColumnReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Synthetic corpora for the benchmarks. Everything is generated from a fixed seed, so every run (and every
+ * commit) sees exactly the same data. Files are written under data/bench the first time they are needed, and
+ * reused after that.
+ *
+ * Words are drawn from a Zipf-like distribution over a fixed vocabulary, so that common words are common, and
+ * about one token in ten is part of an entity.
+ */
+public class BenchmarkData {
+
+    public static final String ROOT = "data/bench";
+
+    public static final String[] LABELS = {"PER", "ORG", "LOC", "GPE"};
+
+    private static final int VOCAB = 20000;
+    private static final int SENTLEN = 25;
+
+    private final Random random;
+
+    public BenchmarkData(long seed){
+        this.random = new Random(seed);
+    }
+
+    /**
+     * A word id, where small ids are much more likely than large ones.
+     * @return
+     */
+    private int zipf(){
+        return (int) Math.floor(Math.pow(VOCAB, random.nextDouble())) - 1;
+    }
+
+    public static String word(int id){
+        return "w" + id;
+    }
+
+    /**
+     * Write a column file with numtokens tokens.
+     * @param file
+     * @param numtokens
+     * @throws IOException
+     */
+    public void writeColumnFile(File file, int numtokens) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            int i = 0;
+            while (i < numtokens) {
+                if (i > 0 && i % SENTLEN == 0) {
+                    out.println();
+                }
+
+                if (random.nextInt(10) == 0) {
+                    String label = LABELS[random.nextInt(LABELS.length)];
+                    int len = 1 + random.nextInt(3);
+                    for (int j = 0; j < len && i < numtokens; j++, i++) {
+                        out.println(word(zipf()) + " " + (j == 0 ? "B-" : "I-") + label);
+                    }
+                } else {
+                    out.println(word(zipf()) + " O");
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * A single column file.
+     * @param numtokens
+     * @return
+     * @throws IOException
+     */
+    public static File columnFile(int numtokens) throws IOException {
+        File file = new File(ROOT, "column-" + numtokens + ".txt");
+        if(!file.exists()){
+            file.getParentFile().mkdirs();
+            new BenchmarkData(numtokens).writeColumnFile(file, numtokens);
+        }
+        return file;
+    }
+
+    /**
+     * A single document, read from a column file.
+     * @param numtokens
+     * @return
+     * @throws IOException
+     */
+    public static TextAnnotation document(int numtokens) throws IOException {
+        return ColumnReader.loadColumnfile(columnFile(numtokens).getAbsolutePath());
+    }
+
+    /**
+     * A folder of json TextAnnotations, as used in sentence mode.
+     * @param numdocs
+     * @param tokensperdoc
+     * @return
+     * @throws IOException
+     */
+    public static File tajsonFolder(int numdocs, int tokensperdoc) throws IOException {
+        File folder = new File(ROOT, "tajson-" + numdocs + "-" + tokensperdoc);
+        if(!folder.exists()){
+            File tmp = new File(ROOT, "tmp-column");
+            tmp.mkdirs();
+            folder.mkdirs();
+
+            BenchmarkData data = new BenchmarkData(numdocs);
+            for(int i = 0; i < numdocs; i++){
+                File column = new File(tmp, "doc" + i);
+                data.writeColumnFile(column, tokensperdoc);
+                TextAnnotation ta = ColumnReader.loadColumnfile(column.getAbsolutePath());
+                SerializationHelper.serializeTextAnnotationToFile(ta, new File(folder, ta.getId()).getAbsolutePath(), true, true);
+                column.delete();
+            }
+            tmp.delete();
+        }
+        return folder;
+    }
+
+    /**
+     * A sentence index of {@link #tajsonFolder(int, int)}.
+     * @param numdocs
+     * @param tokensperdoc
+     * @return
+     * @throws Exception
+     */
+    public static File sentenceIndex(int numdocs, int tokensperdoc) throws Exception {
+        File folder = tajsonFolder(numdocs, tokensperdoc);
+        File index = new File(ROOT, "index-" + numdocs + "-" + tokensperdoc);
+        if(!index.exists()){
+            TextFileIndexer.buildsentenceindex(folder.getAbsolutePath(), index.getAbsolutePath(), Runtime.getRuntime().availableProcessors(), false);
+        }
+        return index;
+    }
+
+    /**
+     * A dictionary file with numentries lines of foreign word, tab, english definition.
+     * @param numentries
+     * @return
+     * @throws IOException
+     */
+    public static File dictionary(int numentries) throws IOException {
+        File file = new File(ROOT, "dict-" + numentries + ".txt");
+        if(!file.exists()){
+            file.getParentFile().mkdirs();
+            BenchmarkData data = new BenchmarkData(numentries);
+            try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+                for (int i = 0; i < numentries; i++) {
+                    String f = word(data.zipf());
+                    // some definitions are phrases.
+                    String e = data.random.nextInt(4) == 0 ? "def" + data.zipf() + " def" + data.zipf() : "def" + data.zipf();
+                    out.println(f + "\t" + e);
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Patterns as found by PatternStats, over the same vocabulary as the documents.
+     * @param numpatterns
+     * @return
+     */
+    public static HashMap<Pair<String, String>, Double> patterns(int numpatterns){
+        BenchmarkData data = new BenchmarkData(numpatterns);
+        HashMap<Pair<String, String>, Double> patterns = new HashMap<>();
+        while(patterns.size() < numpatterns){
+            String label = LABELS[data.random.nextInt(LABELS.length)];
+            String feat;
+            switch (data.random.nextInt(5)){
+                case 0: feat = "context-before=" + word(data.zipf()); break;
+                case 1: feat = "context-before=" + word(data.zipf()) + "_" + word(data.zipf()); break;
+                case 2: feat = "context-after=" + word(data.zipf()); break;
+                case 3: feat = "context-after=" + word(data.zipf()) + "_" + word(data.zipf()); break;
+                default: feat = "full-string=" + word(data.zipf()) + "_" + word(data.zipf()); break;
+            }
+            patterns.put(new Pair<>(feat, label), 0.95 + data.random.nextDouble() * 0.05);
+        }
+        return patterns;
+    }
+
+    /**
+     * Frequent words, usable as search terms.
+     * @param numterms
+     * @return
+     */
+    public static String[] terms(int numterms){
+        String[] terms = new String[numterms];
+        for(int i = 0; i < numterms; i++){
+            // skip the most frequent few, which match nearly every sentence.
+            terms[i] = word(10 + i * 7);
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,39 @@
+package io.github.mayhewsw.benchmarks;
+
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+import io.github.mayhewsw.utils.ColumnReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a single column file, with the streaming reader and the original one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ColumnReaderBenchmark {
+
+    @Param({"10000", "200000"})
+    public int numtokens;
+
+    private String path;
+
+    @Setup
+    public void setup() throws Exception {
+        path = BenchmarkData.columnFile(numtokens).getAbsolutePath();
+    }
+
+    @Benchmark
+    public TextAnnotation loadColumnfile() throws Exception {
+        return ColumnReader.loadColumnfile(path);
+    }
+
+    @Benchmark
+    public TextAnnotation loadColumnfileLegacy() throws Exception {
+        return LegacyColumnReader.loadColumnfile(path);
+    }
+}
@@ -0,0 +1,64 @@
+package io.github.mayhewsw.benchmarks;
+
+import edu.illinois.cs.cogcomp.core.datastructures.Pair;
+import io.github.mayhewsw.CompiledDictionary;
+import io.github.mayhewsw.Dictionary;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a dictionary. construct is what every loaddata pays, once the shared dictionary exists; compile is
+ * paid once per dictionary file, and open once per server start. search is one type-ahead request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DictionaryBenchmark {
+
+    @Param({"10000", "100000"})
+    public int numentries;
+
+    private String path;
+    private Path compiled;
+    private Dictionary dict;
+
+    @Setup
+    public void setup() throws Exception {
+        path = BenchmarkData.dictionary(numentries).getAbsolutePath();
+        compiled = Files.createTempDirectory("dictbench");
+        CompiledDictionary.open(path, compiled);
+        dict = new Dictionary("bench", path, "bench");
+    }
+
+    @Benchmark
+    public Dictionary construct() {
+        return new Dictionary("bench", path, "bench");
+    }
+
+    @Benchmark
+    public List<Pair<String, Integer>> search() {
+        // a type-ahead request: prefix, one typo allowed, one page.
+        return dict.search(BenchmarkData.word(123).substring(0, 3), 1, true, 20);
+    }
+
+    @Benchmark
+    public int compile() throws Exception {
+        try (CompiledDictionary dict = CompiledDictionary.open(path, Files.createTempDirectory("dictbench"))) {
+            return dict.size();
+        }
+    }
+
+    @Benchmark
+    public int open() throws Exception {
+        try (CompiledDictionary dict = CompiledDictionary.open(path, compiled)) {
+            return dict.size();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package io.github.mayhewsw.benchmarks;
+
+import edu.illinois.cs.cogcomp.core.datastructures.Pair;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+import io.github.mayhewsw.FeatureMatcher;
+import io.github.mayhewsw.Suggestion;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding pattern suggestions in a document, with the patterns compiled once, as {@link
+ * io.github.mayhewsw.PatternStats#getMatcher()} does between updates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeatureExtractorBenchmark {
+
+    @Param({"2000"})
+    public int numtokens;
+
+    @Param({"100", "1000"})
+    public int numpatterns;
+
+    private TextAnnotation ta;
+    private FeatureMatcher matcher;
+
+    @Setup
+    public void setup() throws Exception {
+        ta = BenchmarkData.document(numtokens);
+        HashMap<Pair<String, String>, Double> patterns = BenchmarkData.patterns(numpatterns);
+        matcher = new FeatureMatcher(patterns);
+    }
+
+    @Benchmark
+    public List<Suggestion> findfeatfires() {
+        return matcher.match(ta);
+    }
+}
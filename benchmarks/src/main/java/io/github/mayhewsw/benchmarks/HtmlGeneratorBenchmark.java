@@ -0,0 +1,56 @@
+package io.github.mayhewsw.benchmarks;
+
+import edu.illinois.cs.cogcomp.core.datastructures.IntPair;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+import io.github.mayhewsw.Dictionary;
+import io.github.mayhewsw.utils.HtmlGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering a whole document, as on every page view in document mode.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HtmlGeneratorBenchmark {
+
+    @Param({"1000", "10000"})
+    public int numtokens;
+
+    @Param({"false", "true"})
+    public boolean showdefs;
+
+    @Param({"false", "true"})
+    public boolean showroman;
+
+    private TextAnnotation ta;
+    private Dictionary dict;
+    private StringBuilder out = new StringBuilder();
+
+    @Setup
+    public void setup() throws Exception {
+        ta = BenchmarkData.document(numtokens);
+        dict = new Dictionary("bench", BenchmarkData.dictionary(10000).getAbsolutePath(), "bench");
+    }
+
+    @Benchmark
+    public String getHTMLfromTA() {
+        return HtmlGenerator.getHTMLfromTA(ta, dict, showdefs, showroman, false, false);
+    }
+
+    /**
+     * Writing into a reused buffer, as gethtml does with the response writer.
+     */
+    @Benchmark
+    public int writeHTMLfromTA() throws IOException {
+        out.setLength(0);
+        HtmlGenerator.writeHTMLfromTA(out, ta, new IntPair(-1, -1), ta.getId(), "", dict, showdefs, showroman, false, false);
+        return out.length();
+    }
+}
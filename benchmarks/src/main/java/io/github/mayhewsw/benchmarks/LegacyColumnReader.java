@@ -0,0 +1,128 @@
+package io.github.mayhewsw.benchmarks;
+
+import edu.illinois.cs.cogcomp.annotation.BasicTextAnnotationBuilder;
+import edu.illinois.cs.cogcomp.core.datastructures.IntPair;
+import edu.illinois.cs.cogcomp.core.datastructures.ViewNames;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.Constituent;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.SpanLabelView;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+import edu.illinois.cs.cogcomp.core.io.IOUtils;
+import edu.illinois.cs.cogcomp.core.io.LineIO;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The original version of {@link io.github.mayhewsw.utils.ColumnReader#loadColumnfile(String)}, which reads the
+ * whole file into memory first. This is only kept to compare against, in {@link ColumnReaderBenchmark}.
+ */
+class LegacyColumnReader {
+
+    /**
+     * @param filename
+     * @return
+     * @throws FileNotFoundException
+     */
+    public static TextAnnotation loadColumnfile(String filename) throws FileNotFoundException {
+        List<String> lines = LineIO.read(filename);
+
+        List<IntPair> spans = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        List<Integer> sentenceEndPositions = new ArrayList<>();
+
+        StringBuilder text = new StringBuilder();
+
+        int start = -1;
+        String label = "";
+
+        int i = 0;
+        for (String line : lines) {
+            String[] sline = line.split(" ");
+            String word = sline[0];
+            String tag = sline[sline.length-1];
+
+            if (tag.startsWith("B-") || tag.startsWith("U-")) {
+                // two consecutive entities.
+                if (start > -1) {
+                    // peel off a constituent if it exists.
+                    spans.add(new IntPair(start, i));
+                    labels.add(label);
+                }
+
+                start = i;
+                label = tag.split("-")[1];
+
+            } else if (tag.startsWith("I-")) {
+                // don't do anything....
+            } else {
+                // this is a sentence boundary.
+                if (line.trim().length() == 0) {
+                    // perhaps this is i+1?
+                    // in case there are multiple empty lines at the end.
+                    if (!sentenceEndPositions.contains(i) && i > 0) {
+                        sentenceEndPositions.add(i);
+                    }
+                }
+
+                // it's O or it's empty
+                if (start > -1) {
+                    // peel off a constituent if it exists.
+                    spans.add(new IntPair(start, i));
+                    labels.add(label);
+                }
+
+                label = "";
+                start = -1;
+            }
+
+            // add the word form to the sentence.
+            if (sline.length > 0 && !word.equals("-DOCSTART-") && word.trim().length() > 0) {
+                text.append(word + " ");
+                i++;
+            }
+        }
+
+        // in case the very last line is an NE.
+        if (start > -1) {
+            spans.add(new IntPair(start, i));
+            labels.add(label);
+        }
+
+        // in case there are no empty lines.
+        if (!sentenceEndPositions.contains(i)) {
+            sentenceEndPositions.add(i);
+        }
+
+        // we jump through these hoops so we can give the TA an id.
+        String filenameonly = IOUtils.getFileName(filename);
+        List<String[]> tokenizedSentences = Collections.singletonList(text.toString().split(" "));
+        TextAnnotation ta =
+                BasicTextAnnotationBuilder.createTextAnnotationFromTokens("", filenameonly,
+                        tokenizedSentences);
+
+        SpanLabelView sentview = new SpanLabelView(ViewNames.SENTENCE, "UserSpecified", ta, 1d);
+        ta.addView(ViewNames.SENTENCE, sentview);
+
+        int sentstart = 0;
+        for (int s : sentenceEndPositions) {
+            sentview.addSpanLabel(sentstart, s, ViewNames.SENTENCE, 1d);
+            sentstart = s;
+        }
+
+        SpanLabelView emptyview = new SpanLabelView(ViewNames.NER_CONLL, "UserSpecified", ta, 1d);
+        ta.addView(ViewNames.NER_CONLL, emptyview);
+
+        for (int k = 0; k < labels.size(); k++) {
+            label = labels.get(k);
+            IntPair span = spans.get(k);
+            Constituent c =
+                    new Constituent(label, ViewNames.NER_CONLL, ta, span.getFirst(),
+                            span.getSecond());
+            emptyview.addConstituent(c);
+        }
+
+        return ta;
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.mayhewsw.benchmarks;
+
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+import io.github.mayhewsw.PatternStats;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updating pattern counts after a span changes, as on every addspan or removetoken.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PatternStatsBenchmark {
+
+    @Param({"2000"})
+    public int numtokens;
+
+    @Param({"100"})
+    public int numdocs;
+
+    private TextAnnotation ta;
+    private PatternStats stats;
+
+    @Setup
+    public void setup() throws Exception {
+        ta = BenchmarkData.document(numtokens);
+        stats = new PatternStats(Arrays.asList(BenchmarkData.LABELS));
+        for(int i = 0; i < numdocs; i++){
+            stats.update("doc" + i, ta);
+        }
+    }
+
+    @Benchmark
+    public int update() {
+        stats.update("doc0", ta);
+        return stats.getPatterns().size();
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.mayhewsw.benchmarks;
+
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.Constituent;
+import io.github.mayhewsw.Group;
+import io.github.mayhewsw.GroupIndex;
+import io.github.mayhewsw.controllers.SentenceController;
+import io.github.mayhewsw.utils.SentenceCache;
+import io.github.mayhewsw.utils.SentenceSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The sentence mode paths: looking up sentences, gathering the top sentences for a term, and building groups.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SentenceCacheBenchmark {
+
+    @Param({"500"})
+    public int numdocs;
+
+    @Param({"500"})
+    public int tokensperdoc;
+
+    // smaller than numdocs, so getSentence sees both hits and misses.
+    @Param({"100"})
+    public int cachedocs;
+
+    private String folder;
+    private String index;
+
+    private SentenceCache cache;
+    private List<String> sentids;
+    private int next = 0;
+
+    private String[] terms;
+
+    @Setup
+    public void setup() throws Exception {
+        folder = BenchmarkData.tajsonFolder(numdocs, tokensperdoc).getAbsolutePath();
+        index = BenchmarkData.sentenceIndex(numdocs, tokensperdoc).getAbsolutePath();
+        terms = BenchmarkData.terms(20);
+
+        cache = new SentenceCache(folder, null, index, cachedocs, SentenceCache.DEFAULT_MAXQUERIES);
+
+        HashSet<String> ids = new HashSet<>();
+        for(String term : terms){
+            ids.addAll(cache.getAllResults(term));
+        }
+        sentids = new ArrayList<>(ids);
+    }
+
+    @Benchmark
+    public Constituent getSentence() throws Exception {
+        String sentid = sentids.get(next);
+        next = (next + 1) % sentids.size();
+        return cache.getSentence(sentid);
+    }
+
+    @Benchmark
+    public SentenceSet gatherTopK() throws Exception {
+        String term = terms[next];
+        next = (next + 1) % terms.length;
+        return cache.gatherTopK(term, new SentenceSet(cache.getSentenceIds()), 5);
+    }
+
+    /**
+     * Intersecting the results of two terms, as when a new term takes the sentences already in groups.
+     */
+    @Benchmark
+    public int intersect() throws Exception {
+        String term = terms[next];
+        next = (next + 1) % terms.length;
+        return SentenceSet.and(cache.getAllResults(term), cache.getAllResults(terms[next])).size();
+    }
+
+    /**
+     * Builds groups for all terms from an empty cache, as in loaddata.
+     */
+    @Benchmark
+    public HashMap<String, Group> updategroups() throws Exception {
+        SentenceCache fresh = new SentenceCache(folder, null, index, cachedocs, SentenceCache.DEFAULT_MAXQUERIES);
+        HashMap<String, Group> groups = new HashMap<>();
+        for(String term : terms){
+            groups.put(term, new Group(fresh.getSentenceIds()));
+        }
+        SentenceController.updategroups(fresh, groups, new GroupIndex(fresh.getSentenceIds()));
+        return groups;
+    }
+}
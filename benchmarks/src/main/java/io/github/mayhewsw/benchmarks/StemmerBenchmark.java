@@ -0,0 +1,101 @@
+package io.github.mayhewsw.benchmarks;
+
+import io.github.mayhewsw.utils.SuffixStemmer;
+import io.github.mayhewsw.utils.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stemming the surfaces of entities, as on every loaddata and save in sentence mode: the old loop over all
+ * suffixes, the suffix trie on words it has not seen, and the suffix trie on words it remembers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StemmerBenchmark {
+
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+    @Param({"20", "300"})
+    public int numsuffixes;
+
+    @Param({"1000"})
+    public int numwords;
+
+    private List<String> suffixes;
+    private String[] words;
+    private SuffixStemmer warm;
+    private SuffixStemmer cold;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(23);
+
+        suffixes = new ArrayList<>();
+        while(suffixes.size() < numsuffixes){
+            StringBuilder sb = new StringBuilder();
+            int len = 2 + random.nextInt(4);
+            for(int i = 0; i < len; i++){
+                sb.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+            }
+            if(!suffixes.contains(sb.toString())) {
+                suffixes.add(sb.toString());
+            }
+        }
+
+        // up to three stacked suffixes on each word.
+        words = new String[numwords];
+        for(int i = 0; i < numwords; i++){
+            StringBuilder sb = new StringBuilder(BenchmarkData.word(i));
+            int stacked = random.nextInt(4);
+            for(int j = 0; j < stacked; j++){
+                sb.append(suffixes.get(random.nextInt(suffixes.size())));
+            }
+            words[i] = sb.toString();
+        }
+
+        warm = new SuffixStemmer(suffixes);
+        for(String word : words){
+            warm.stem(word);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        cold = new SuffixStemmer(suffixes);
+    }
+
+    @Benchmark
+    public int loop() {
+        int len = 0;
+        for(String word : words){
+            len += Utils.stem(word, suffixes).length();
+        }
+        return len;
+    }
+
+    @Benchmark
+    public int trie() {
+        int len = 0;
+        for(String word : words){
+            len += cold.stem(word).length();
+        }
+        return len;
+    }
+
+    @Benchmark
+    public int memo() {
+        int len = 0;
+        for(String word : words){
+            len += warm.stem(word).length();
+        }
+        return len;
+    }
+}
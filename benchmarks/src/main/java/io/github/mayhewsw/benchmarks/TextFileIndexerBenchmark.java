@@ -0,0 +1,50 @@
+package io.github.mayhewsw.benchmarks;
+
+import io.github.mayhewsw.TextFileIndexer;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a sentence index from scratch.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TextFileIndexerBenchmark {
+
+    @Param({"500"})
+    public int numdocs;
+
+    @Param({"1", "4"})
+    public int numthreads;
+
+    private String folder;
+    private File indexdir;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        folder = BenchmarkData.tajsonFolder(numdocs, 500).getAbsolutePath();
+    }
+
+    @Setup(Level.Iteration)
+    public void makeindexdir() throws Exception {
+        indexdir = Files.createTempDirectory("bench-index").toFile();
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeindexdir() throws Exception {
+        FileUtils.deleteDirectory(indexdir);
+    }
+
+    @Benchmark
+    public void buildsentenceindex() throws Exception {
+        TextFileIndexer.buildsentenceindex(folder, indexdir.getAbsolutePath(), numthreads, false);
+    }
+}
@@ -0,0 +1,20 @@
+#!/bin/sh
+# Run the JMH benchmarks and save the results as benchmarks/results/<commit>.json
+# Any arguments are passed on to JMH, for example a regex to run only some benchmarks:
+#   scripts/benchmark.sh HtmlGenerator
+
+set -e
+
+COMMIT=$(git rev-parse --short HEAD)
+if [ -n "$(git status --porcelain --untracked-files=no)" ]; then
+    COMMIT="${COMMIT}-dirty"
+fi
+
+mvn -q install -DskipTests
+(cd benchmarks && mvn -q package)
+
+mkdir -p benchmarks/results
+java -jar benchmarks/target/benchmarks.jar -rf json -rff benchmarks/results/${COMMIT}.json "$@"
+
+echo "Results written to benchmarks/results/${COMMIT}.json"
+echo "Compare with: python scripts/compare_benchmarks.py benchmarks/results/OLD.json benchmarks/results/${COMMIT}.json"
@@ -6,5 +6,7 @@ cpath="target/classes:target/dependency/*:config"
 
 INPATH=$1
 OUTPATH=$2
+# optional: number of indexing threads (default 1)
+THREADS=${3:-1}
 
-java -classpath  ${cpath} -Xmx16g io.github.mayhewsw.TextFileIndexer -infolder $INPATH -indexfolder $OUTPATH -test
+java -classpath  ${cpath} -Xmx16g io.github.mayhewsw.TextFileIndexer -infolder $INPATH -indexfolder $OUTPATH -threads $THREADS -test
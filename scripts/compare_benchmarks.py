@@ -0,0 +1,38 @@
+#!/usr/bin/env python
+"""Compare two JMH result files (as written by scripts/benchmark.sh) and print the change for each benchmark."""
+import json
+import sys
+
+
+def load(path):
+    with open(path) as f:
+        results = json.load(f)
+    ret = {}
+    for r in results:
+        params = ",".join("%s=%s" % kv for kv in sorted(r.get("params", {}).items()))
+        name = r["benchmark"].replace("io.github.mayhewsw.benchmarks.", "")
+        ret[(name, params)] = (r["primaryMetric"]["score"], r["primaryMetric"]["scoreUnit"])
+    return ret
+
+
+def main(old, new, threshold=0.1):
+    a = load(old)
+    b = load(new)
+    for key in sorted(set(a) | set(b)):
+        name, params = key
+        if key not in a or key not in b:
+            print("%-60s %-40s only in %s" % (name, params, old if key in a else new))
+            continue
+        before, unit = a[key]
+        after, _ = b[key]
+        change = (after - before) / before if before else 0.0
+        # all benchmarks report time per operation, so higher is slower.
+        flag = "SLOWER" if change > threshold else ("faster" if change < -threshold else "")
+        print("%-60s %-40s %12.3f -> %12.3f %-6s %+7.1f%% %s" % (name, params, before, after, unit, change * 100, flag))
+
+
+if __name__ == "__main__":
+    if len(sys.argv) < 3:
+        print("usage: compare_benchmarks.py old.json new.json [threshold]")
+        sys.exit(1)
+    main(sys.argv[1], sys.argv[2], float(sys.argv[3]) if len(sys.argv) > 3 else 0.1)
@@ -0,0 +1,10 @@
+#!/bin/sh
+# write the snapshot of a conll or column folder, with romanized tokens
+
+# Classpath
+cpath="target/classes:target/dependency/*:config"
+
+FOLDERTYPE=$1
+FOLDER=$2
+
+java -classpath  ${cpath} io.github.mayhewsw.utils.Romanizer $FOLDERTYPE $FOLDER
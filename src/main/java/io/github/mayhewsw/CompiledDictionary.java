@@ -0,0 +1,375 @@
+package io.github.mayhewsw;
+
+import edu.illinois.cs.cogcomp.core.io.LineIO;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.*;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.automaton.ByteRunAutomaton;
+import org.apache.lucene.util.fst.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-only dictionary file, compiled so that it can be shared by every session. The keys are kept in a Lucene
+ * FST, which maps each key to the position of its definitions in a second file. Both files are written under
+ * dicts/compiled the first time a dictionary is used, and after that they are just opened: the FST is read into
+ * memory (it is small, since keys share prefixes and suffixes), and the definitions are memory mapped.
+ *
+ * Definitions are in the same order as {@link Dictionary} always had them: most frequent pair first, counting
+ * pairs of whole entries, lowercased entries, and the words inside them. A compiled file is made again if the
+ * dictionary file changes.
+ *
+ * Use {@link #getShared(String)}, which keeps one instance per dictionary file.
+ */
+public class CompiledDictionary implements Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(CompiledDictionary.class);
+
+    private static final String CODEC = "CompiledDictionary";
+    private static final int VERSION = 0;
+    private static final Path FOLDER = Paths.get("dicts", "compiled");
+
+    public static final CompiledDictionary EMPTY = new CompiledDictionary(null, null, 0);
+
+    private static final ConcurrentHashMap<String, CompiledDictionary> shared = new ConcurrentHashMap<>();
+
+    // maps from key to the file pointer of its definitions. Null if the dictionary is empty.
+    private final FST<Long> fst;
+    // the definitions, each a vint count followed by strings. Only clones of this are read.
+    private final IndexInput defs;
+    private final int numkeys;
+
+    private CompiledDictionary(FST<Long> fst, IndexInput defs, int numkeys){
+        this.fst = fst;
+        this.defs = defs;
+        this.numkeys = numkeys;
+    }
+
+    /**
+     * Get the shared dictionary for this file, compiling it if there is no up to date compiled file. If the file
+     * cannot be read, the dictionary is empty.
+     * @param dictpath
+     * @return
+     */
+    public static CompiledDictionary getShared(String dictpath){
+        if(dictpath == null){
+            return EMPTY;
+        }
+        String key = new File(dictpath).getAbsolutePath();
+        // other sessions asking for the same dictionary wait here until it is ready.
+        return shared.computeIfAbsent(key, k -> {
+            try {
+                return open(k, FOLDER);
+            } catch (IOException e) {
+                // an empty dictionary is a graceful failure.
+                logger.info("Dictionary file not found: " + k + ". Dictionary is empty.");
+                return EMPTY;
+            }
+        });
+    }
+
+    /**
+     * Open the compiled form of this dictionary file in folder, compiling it first if needed.
+     * @param dictpath
+     * @param folder
+     * @return
+     * @throws IOException if the dictionary file cannot be read.
+     */
+    public static CompiledDictionary open(String dictpath, Path folder) throws IOException {
+        File source = new File(dictpath).getAbsoluteFile();
+        if(!source.isFile()){
+            throw new IOException("Not a file: " + source);
+        }
+        String name = source.getName() + "-" + Integer.toHexString(source.getPath().hashCode());
+
+        folder.toFile().mkdirs();
+        Directory dir = new MMapDirectory(folder);
+
+        CompiledDictionary ret = load(dir, name, source);
+        if(ret == null){
+            logger.info("Compiling dictionary {}...", source);
+            compile(source, dir, name);
+            ret = load(dir, name, source);
+            if(ret == null){
+                throw new IOException("Could not read compiled dictionary " + name);
+            }
+        }
+        logger.info("Done loading dictionary {}: {} keys.", source, ret.numkeys);
+        return ret;
+    }
+
+    /**
+     * @return the compiled dictionary, or null if there is none or it is older than source.
+     */
+    private static CompiledDictionary load(Directory dir, String name, File source) throws IOException {
+        if(!Arrays.asList(dir.listAll()).contains(name + ".fst")){
+            return null;
+        }
+
+        try (IndexInput in = dir.openInput(name + ".fst", IOContext.READONCE)) {
+            CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+            if(!in.readString().equals(source.getPath()) || in.readLong() != source.length() || in.readLong() != source.lastModified()){
+                return null;
+            }
+            int numkeys = in.readVInt();
+            FST<Long> fst = numkeys == 0 ? null : new FST<>(in, PositiveIntOutputs.getSingleton());
+            return new CompiledDictionary(fst, dir.openInput(name + ".defs", IOContext.DEFAULT), numkeys);
+        } catch (IOException e) {
+            logger.info("Compiled dictionary {} is unreadable ({}), compiling again.", name, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read the dictionary file and write name.defs and name.fst. Each is written to a temporary file first, and
+     * the fst is renamed last, so a compiled dictionary is either complete or absent.
+     */
+    private static void compile(File source, Directory dir, String name) throws IOException {
+        long length = source.length();
+        long modified = source.lastModified();
+        ArrayList<String> dictlines = LineIO.read(source.getPath());
+
+        // maps from foreign to english, most recent line first.
+        HashMap<String, List<String>> entries = new HashMap<>();
+        // the count of each (english, foreign) pair that is an entry. Other pairs are never looked at.
+        HashMap<String, Integer> pairs = new HashMap<>();
+        for (String line : dictlines) {
+            String[] sline = line.split("\t");
+            if(sline.length < 2) continue;
+            entries.computeIfAbsent(sline[0], k -> new ArrayList<>()).add(0, sline[1]);
+            pairs.put(sline[1] + "\t" + sline[0], 0);
+        }
+
+        for (String line : dictlines) {
+            String[] sline = line.split("\t");
+            if(sline.length < 2) continue;
+            String f = sline[0];
+            String e = sline[1];
+
+            increment(pairs, e, f);
+            increment(pairs, e.toLowerCase(), f.toLowerCase());
+            for(String a : e.split(" ")){
+                for(String b : f.split(" ")){
+                    increment(pairs, a, b);
+                    increment(pairs, a.toLowerCase(), b.toLowerCase());
+                }
+            }
+        }
+
+        // the FST needs keys in byte order.
+        BytesRef[] keys = new BytesRef[entries.size()];
+        int i = 0;
+        for(String key : entries.keySet()){
+            keys[i++] = new BytesRef(key);
+        }
+        Arrays.sort(keys);
+
+        PositiveIntOutputs outputs = PositiveIntOutputs.getSingleton();
+        Builder<Long> builder = new Builder<>(FST.INPUT_TYPE.BYTE1, outputs);
+        IntsRefBuilder scratch = new IntsRefBuilder();
+
+        String defsname;
+        try (IndexOutput out = dir.createTempOutput(name, "defs", IOContext.DEFAULT)) {
+            defsname = out.getName();
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+            for(BytesRef key : keys){
+                String f = key.utf8ToString();
+                List<String> defs = new ArrayList<>(entries.get(f));
+                // stable, so equal counts stay most recent first.
+                defs.sort(Comparator.comparing((String e) -> pairs.get(e + "\t" + f)).reversed());
+
+                builder.add(Util.toIntsRef(key, scratch), out.getFilePointer());
+                out.writeVInt(defs.size());
+                for(String def : defs){
+                    out.writeString(def);
+                }
+            }
+        }
+
+        String fstname;
+        try (IndexOutput out = dir.createTempOutput(name, "fst", IOContext.DEFAULT)) {
+            fstname = out.getName();
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+            out.writeString(source.getPath());
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.writeVInt(keys.length);
+            FST<Long> fst = builder.finish();
+            if(fst != null) {
+                fst.save(out);
+            }
+        }
+
+        dir.sync(Arrays.asList(defsname, fstname));
+        replace(dir, defsname, name + ".defs");
+        replace(dir, fstname, name + ".fst");
+        dir.syncMetaData();
+    }
+
+    private static void increment(HashMap<String, Integer> pairs, String e, String f){
+        pairs.computeIfPresent(e + "\t" + f, (k, c) -> c + 1);
+    }
+
+    private static void replace(Directory dir, String from, String to) throws IOException {
+        if(Arrays.asList(dir.listAll()).contains(to)){
+            dir.deleteFile(to);
+        }
+        dir.rename(from, to);
+    }
+
+    /**
+     * Unmap the definitions. Only for dictionaries from {@link #open}; shared dictionaries stay open.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if(defs != null){
+            defs.close();
+        }
+    }
+
+    public boolean isEmpty(){
+        return numkeys == 0;
+    }
+
+    public int size(){
+        return numkeys;
+    }
+
+    public boolean containsKey(String key){
+        return pointer(key) != null;
+    }
+
+    /**
+     * @param key
+     * @return the definitions of key, most likely first, or null if there are none.
+     */
+    public List<String> get(String key){
+        Long pointer = pointer(key);
+        if(pointer == null){
+            return null;
+        }
+        try {
+            IndexInput in = defs.clone();
+            in.seek(pointer);
+            int n = in.readVInt();
+            List<String> ret = new ArrayList<>(n);
+            for(int i = 0; i < n; i++){
+                ret.add(in.readString());
+            }
+            return Collections.unmodifiableList(ret);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Long pointer(String key){
+        if(fst == null){
+            return null;
+        }
+        try {
+            return Util.get(fst, new BytesRef(key));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Keys accepted by an automaton, in byte order. This walks the FST and the automaton together, and never goes
+     * down a branch the automaton rejects, so it only looks at keys that could still match.
+     * @param automaton
+     * @param max stop after this many keys
+     * @return
+     */
+    public List<String> keys(ByteRunAutomaton automaton, int max){
+        List<String> ret = new ArrayList<>();
+        if(fst == null || max <= 0){
+            return ret;
+        }
+        try {
+            FST.Arc<Long> root = fst.getFirstArc(new FST.Arc<>());
+            if(root.isFinal() && automaton.isAccept(0)){
+                ret.add("");
+            }
+            collect(root, 0, automaton, fst.getBytesReader(), new BytesRefBuilder(), ret, max);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ret;
+    }
+
+    private void collect(FST.Arc<Long> arc, int state, ByteRunAutomaton automaton, FST.BytesReader reader, BytesRefBuilder key, List<String> ret, int max) throws IOException {
+        if(!FST.targetHasArcs(arc)){
+            return;
+        }
+        FST.Arc<Long> child = fst.readFirstTargetArc(arc, new FST.Arc<>(), reader);
+        while(true){
+            // END_LABEL only marks that this node is final, which the caller has seen already.
+            if(child.label != FST.END_LABEL){
+                int next = automaton.step(state, child.label);
+                if(next != -1){
+                    key.append((byte) child.label);
+                    if(child.isFinal() && automaton.isAccept(next)){
+                        ret.add(key.get().utf8ToString());
+                    }
+                    if(ret.size() < max){
+                        collect(child, next, automaton, reader, key, ret, max);
+                    }
+                    key.setLength(key.length() - 1);
+                    if(ret.size() >= max){
+                        return;
+                    }
+                }
+            }
+            if(child.isLast()){
+                return;
+            }
+            fst.readNextArc(child, reader);
+        }
+    }
+
+    /**
+     * All keys, in byte order. This reads the FST as it goes, so stopping early is cheap.
+     * @return
+     */
+    public Iterable<String> keys(){
+        return () -> new Iterator<String>() {
+            private final BytesRefFSTEnum<Long> fstenum = fst == null ? null : new BytesRefFSTEnum<>(fst);
+            private BytesRefFSTEnum.InputOutput<Long> next = advance();
+
+            private BytesRefFSTEnum.InputOutput<Long> advance(){
+                try {
+                    return fstenum == null ? null : fstenum.next();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public boolean hasNext(){
+                return next != null;
+            }
+
+            @Override
+            public String next(){
+                if(next == null){
+                    throw new NoSuchElementException();
+                }
+                String ret = next.input.utf8ToString();
+                next = advance();
+                return ret;
+            }
+        };
+    }
+}
@@ -20,6 +20,8 @@ public class ConfigFile extends Properties{
     private String mode;
     private String indexpath;
     private String terms;
+    private String cachedocs;
+    private String cachequeries;
 
     public List<String> allowableentries;
 
@@ -56,6 +58,53 @@ public class ConfigFile extends Properties{
 
         indexpath = this.getProperty("indexpath");
         terms = this.getProperty("terms");
+
+        cachedocs = this.getProperty("cachedocs");
+        cachequeries = this.getProperty("cachequeries");
+    }
+
+    /**
+     * Parse an integer property, falling back to a default if it is missing or malformed.
+     * @param value
+     * @param defaultvalue
+     * @return
+     */
+    private static int parseInt(String value, int defaultvalue){
+        if(value == null || value.trim().length() == 0){
+            return defaultvalue;
+        }
+        try{
+            return Integer.parseInt(value.trim());
+        }catch(NumberFormatException e){
+            System.err.println("Could not parse " + value + " as an integer, using " + defaultvalue);
+            return defaultvalue;
+        }
+    }
+
+    /**
+     * The maximum number of documents held in the sentence cache of each session (sentence mode).
+     * @param defaultvalue
+     * @return
+     */
+    public int getCachedocs(int defaultvalue) {
+        return parseInt(cachedocs, defaultvalue);
+    }
+
+    /**
+     * The maximum number of query results held in the sentence cache of each session (sentence mode).
+     * @param defaultvalue
+     * @return
+     */
+    public int getCachequeries(int defaultvalue) {
+        return parseInt(cachequeries, defaultvalue);
+    }
+
+    public void setCachedocs(String cachedocs) {
+        this.cachedocs = cachedocs;
+    }
+
+    public void setCachequeries(String cachequeries) {
+        this.cachequeries = cachequeries;
     }
 
     public String getIndexpath() {
@@ -144,6 +193,8 @@ public class ConfigFile extends Properties{
         entries.put("mode", mode);
         entries.put("indexpath", indexpath);
         entries.put("terms",  terms);
+        entries.put("cachedocs", cachedocs);
+        entries.put("cachequeries", cachequeries);
 
         StringJoiner sj = new StringJoiner("\n");
         for(String k : entries.keySet()){
@@ -1,52 +1,145 @@
 package io.github.mayhewsw;
 
 import edu.illinois.cs.cogcomp.core.datastructures.Pair;
-import edu.illinois.cs.cogcomp.core.io.LineIO;
+import io.github.mayhewsw.utils.Journal;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.*;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static java.util.Comparator.comparing;
 import static java.util.stream.Collectors.toList;
 
 /**
  * Created by mayhew2 on 1/27/17.
+ *
+ * The definitions in the dictionary file come from a {@link CompiledDictionary}, which is shared by every session
+ * that uses the same file. This only holds what the user has added, which is saved to the user dictionary file.
+ *
+ * The user dictionary file is a {@link Journal}: each definition the user adds is appended to it, and loading
+ * replays it in order. When the file has many repeated lines, it is compacted on load.
  */
-public class Dictionary extends HashMap<String, List<String>> {
+public class Dictionary {
 
     private static Logger logger = LoggerFactory.getLogger(Dictionary.class);
     public String dictpath;
     public String dictname;
     private List<Pair<String, String>> newpairs;
+    // the number of newpairs already in the user dictionary file.
+    private int saved;
+
+    // compact the user dictionary file when it is longer than this, and more than half its lines are repeats.
+    private static final int COMPACTAT = 1000;
+
+    private final CompiledDictionary shared;
+    // maps from each key the user has added to, to all its definitions, user definitions first.
+    private final HashMap<String, List<String>> overlay = new HashMap<>();
+
+    // used to tell dictionaries apart in cache keys. The version goes up every time a definition is added.
+    private static final AtomicLong ids = new AtomicLong();
+    private final long id = ids.incrementAndGet();
+    private volatile long version;
+
+    public boolean isEmpty(){
+        return shared.isEmpty() && overlay.isEmpty();
+    }
+
+    public boolean containsKey(String key){
+        return overlay.containsKey(key) || shared.containsKey(key);
+    }
 
     /**
-     * Get the all pairs of elements from two lists. In python this is an import. :(
-     * @param alist
-     * @param blist
-     * @return a list of pairs.
+     * @param key
+     * @return the definitions of key, most recent user definition first, or null if there are none.
      */
-    private static List<Pair<String,String>> product(String[] alist, String[] blist){
-
-        List<Pair<String, String>> prod = new ArrayList<>();
+    public List<String> get(String key){
+        List<String> defs = overlay.get(key);
+        if(defs != null){
+            return defs;
+        }
+        return shared.get(key);
+    }
 
-        for(String a : alist){
-            for(String b : blist){
-                prod.add(new Pair<>(a,b));
+    /**
+     * All keys: those in the dictionary file, in byte order, and then those only the user has added.
+     * @return
+     */
+    public Iterable<String> keys(){
+        List<String> added = new ArrayList<>();
+        for(String key : overlay.keySet()){
+            if(!shared.containsKey(key)){
+                added.add(key);
             }
         }
-        return prod;
+        return () -> new Iterator<String>() {
+            private final Iterator<String> first = shared.keys().iterator();
+            private final Iterator<String> second = added.iterator();
+
+            @Override
+            public boolean hasNext(){
+                return first.hasNext() || second.hasNext();
+            }
+
+            @Override
+            public String next(){
+                return first.hasNext() ? first.next() : second.next();
+            }
+        };
     }
 
-    public boolean isEmpty(){
-        return this.keySet().isEmpty();
+    /**
+     * Find keys for type-ahead: keys at most maxedits edits away from query, or if prefix is set, keys that start
+     * with something at most maxedits edits away from query. Closer keys come first, and keys at the same
+     * distance are in byte order. A transposition counts as one edit.
+     * @param query
+     * @param maxedits at most {@link LevenshteinAutomata#MAXIMUM_SUPPORTED_DISTANCE}
+     * @param prefix
+     * @param max the number of keys wanted
+     * @return pairs of key and edit distance
+     */
+    public List<Pair<String, Integer>> search(String query, int maxedits, boolean prefix, int max){
+        List<Pair<String, Integer>> ret = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        LevenshteinAutomata lev = new LevenshteinAutomata(query, true);
+        for(int d = 0; d <= maxedits && ret.size() < max; d++){
+            Automaton automaton = lev.toAutomaton(d);
+            if(prefix){
+                automaton = Operations.concatenate(automaton, Automata.makeAnyString());
+            }
+
+            ByteRunAutomaton bytes;
+            try {
+                bytes = new ByteRunAutomaton(automaton);
+            } catch (TooComplexToDeterminizeException e) {
+                logger.info("Search for " + query + " is too complex at distance " + d + ".");
+                break;
+            }
+
+            // the keys found at smaller distances match again, so ask for enough to get past them.
+            List<String> found = shared.keys(bytes, max + seen.size());
+            CharacterRunAutomaton chars = new CharacterRunAutomaton(automaton);
+            for(String key : overlay.keySet()){
+                if(!shared.containsKey(key) && chars.run(key)){
+                    found.add(key);
+                }
+            }
+            found.sort(Comparator.comparing(BytesRef::new));
+
+            for(String key : found){
+                if(ret.size() >= max){
+                    break;
+                }
+                if(seen.add(key)){
+                    ret.add(new Pair<>(key, d));
+                }
+            }
+        }
+        return ret;
     }
 
     public String getName(){
@@ -54,16 +147,11 @@ public class Dictionary extends HashMap<String, List<String>> {
     }
 
     /**
-     * Because I got tired of writing this so many times.
-     * @param m
-     * @param p
+     * A string that changes every time a definition is added, and is different for every dictionary.
+     * @return
      */
-    private static void addOrIncrement(HashMap<Pair<String, String>, Integer> m, Pair<String, String> p){
-        // In python, this is a defaultdict.
-        if(!m.containsKey(p)){
-            m.put(p, 0);
-        }
-        m.put(p, m.get(p)+1);
+    public String getVersion(){
+        return id + "." + version;
     }
 
     /**
@@ -76,30 +164,38 @@ public class Dictionary extends HashMap<String, List<String>> {
     }
 
     /**
-     * Add a definition to this dictionary.
+     * Add a definition to this dictionary. If key already has this definition, it moves to the front.
      * @param key
      * @param def
      * @param isnew defines whether or not it should be added to the user dictionary list
      */
     public void add(String key, String def, boolean isnew){
-        if(!this.containsKey(key)){
-            this.put(key, new ArrayList<>());
+        List<String> defs = overlay.get(key);
+        if(defs == null){
+            defs = new ArrayList<>();
+            List<String> shareddefs = shared.get(key);
+            if(shareddefs != null){
+                defs.addAll(shareddefs);
+            }
+            overlay.put(key, defs);
         }
         // always add to the front of the list.
-        this.get(key).add(0, def);
+        defs.remove(def);
+        defs.add(0, def);
 
         if(isnew) {
             this.newpairs.add(new Pair<>(key, def));
         }
-
+        version++;
     }
 
     /**
-     * This saves the user-generated pairs to file.
+     * This appends the user-generated pairs added since the last save to file.
      */
     public void save(String dataname, String username) throws IOException {
-        List<String> outlines = newpairs.stream().map(p -> p.getFirst() + "\t" + p.getSecond()).collect(toList());
-        LineIO.write(getUserDictPath(dataname, username), outlines);
+        List<String> outlines = newpairs.subList(saved, newpairs.size()).stream().map(p -> p.getFirst() + "\t" + p.getSecond()).collect(toList());
+        Journal.get(Paths.get(getUserDictPath(dataname, username))).append(outlines);
+        saved = newpairs.size();
     }
 
     /**
@@ -122,90 +218,56 @@ public class Dictionary extends HashMap<String, List<String>> {
 
     public Dictionary(String dictname, String dictpath, String username) {
 
-
         this.newpairs = new ArrayList<>();
 
         this.dictpath = dictpath;
         this.dictname = dictname;
 
-        ArrayList<String> dictlines = null;
-
-        if(dictpath != null) {
-            try {
-                dictlines = LineIO.read(dictpath);
-
-                // I want a dictionary that maps from foreign->english.
-
-                // This keeps track of pair counts, so we can sort according to popularity.
-                HashMap<Pair<String, String>, Integer> pairs = new HashMap<>();
-
-                logger.info("Loading dictionary...");
-                for (String line : dictlines) {
-                    String[] sline = line.split("\t");
-                    if(sline.length < 2) continue;
-
-                    String f = sline[0];
-                    String e = sline[1];
-
-                    Pair<String, String> ef = new Pair<>(e, f);
-                    Pair<String, String> eflower = new Pair<>(e.toLowerCase(), f.toLowerCase());
-
-                    addOrIncrement(pairs, ef);
-                    addOrIncrement(pairs, eflower);
-
-                    for (Pair<String, String> p : product(e.split(" "), f.split(" "))) {
-                        addOrIncrement(pairs, p);
-                        Pair<String, String> plower = new Pair<>(p.getFirst().toLowerCase(), p.getSecond().toLowerCase());
-                        addOrIncrement(pairs, plower);
-                    }
-
-                    // actually add to dictionary.
-                    this.add(f, e, false);
-                }
-
-                // this is now f2e.
-                for (String k : this.keySet()) {
-                    // scores gathers
-
-                    Comparator<Pair<String, Integer>> comparator = Comparator.comparing(Pair::getSecond);
-
-                    List<String> sortedpairs = this.get(k).stream()
-                            .map(w -> new Pair<>(w, k))
-                            .map(p -> new Pair<>(p.getFirst(), pairs.get(p)))
-                            .sorted(comparator.reversed())
-                            .map(p -> p.getFirst())
-                            .collect(toList());
-
-                    this.put(k, sortedpairs);
-                }
-            } catch (IOException e) {
-                // an empty dictionary is a graceful failure.
-                logger.info("Dictionary file not found: " + dictpath + ". Dictionary is empty.");
-            }
-        }
+        this.shared = CompiledDictionary.getShared(dictpath);
 
         // Also read the user generated pairs.
-        ArrayList<String> userlines = new ArrayList<>();
-        String userdictpath = this.getUserDictPath(dictname, username);
+        Journal journal = Journal.get(Paths.get(this.getUserDictPath(dictname, username)));
+        List<String> userlines = new ArrayList<>();
         try {
-            userlines = LineIO.read(userdictpath);
+            // compact in the same step as reading, so that lines other sessions append are never dropped.
+            userlines = journal.compactIf(lines -> {
+                List<String> distinct = distinct(lines);
+                return lines.size() > COMPACTAT && lines.size() > 2 * distinct.size() ? distinct : null;
+            });
         } catch (IOException e) {
             // an empty dictionary is a graceful failure.
-            logger.info("User dictionary file not found: " + dictpath + "." + username +". User dictionary is empty.");
+            logger.info("User dictionary file not readable: " + dictpath + "." + username +". User dictionary is empty.");
         }
         for(String line : userlines) {
             String[] sline = line.split("\t");
+            if(sline.length < 2) continue;
             String f = sline[0];
             String e = sline[1];
 
             this.add(f, e, true);
         }
-
+        saved = newpairs.size();
 
         logger.info("Done loading dictionary.");
     }
 
 
+    /**
+     * @param lines lines of a user dictionary
+     * @return the lines that give the same dictionary, most recent last.
+     */
+    private static List<String> distinct(List<String> lines){
+        LinkedHashSet<String> distinct = new LinkedHashSet<>();
+        for(String line : lines) {
+            String[] sline = line.split("\t");
+            if(sline.length < 2) continue;
+            String pair = sline[0] + "\t" + sline[1];
+            distinct.remove(pair);
+            distinct.add(pair);
+        }
+        return new ArrayList<>(distinct);
+    }
+
     public static void main(String[] args) throws IOException {
         //Dictionary d = new Dictionary("whatevs", "/shared/experiments/mayhew2/lexicons/spa-eng.masterlex.txt.gz");
         Dictionary d = new Dictionary("whatevs", "/home/mayhew/IdeaProjects/ner-annotation/bendict.txt", "testuser");
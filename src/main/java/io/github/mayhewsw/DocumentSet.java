@@ -0,0 +1,223 @@
+package io.github.mayhewsw;
+
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+import io.github.mayhewsw.utils.CorpusService;
+import io.github.mayhewsw.utils.DocumentStore;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * The documents one user sees in document mode. This is a thin layer over the shared documents from
+ * {@link CorpusService}: reads go to the user's own copy of a document if there is one, and to the shared
+ * document otherwise. The first time a document is edited (see {@link #getForEdit(String)}) it is copied, so
+ * memory grows with the number of edited documents, not with the number of users.
+ *
+ * The user's own copies come either from edits in this session, or from the user annotation folder. Both
+ * folders are read lazily (see {@link DocumentStore}), so nothing is deserialized until it is viewed.
+ *
+ * This has the parts of the TreeMap interface that the controllers and templates use. Keys are ordered by
+ * {@link KeyComparator}.
+ */
+public class DocumentSet {
+
+    private final DocumentStore base;
+
+    // documents this user has saved before. May be null.
+    private final DocumentStore annotated;
+
+    // documents owned by this user: either edited copies of base documents, or loaded from the annotation folder.
+    private final TreeMap<String, TextAnnotation> overlay;
+
+    /**
+     * @param base the shared documents
+     * @param annotated the user annotation folder, or null if there is none.
+     */
+    public DocumentSet(DocumentStore base, DocumentStore annotated){
+        this.base = base;
+        this.annotated = annotated;
+        this.overlay = new TreeMap<>(new KeyComparator());
+    }
+
+    /**
+     * Get a document for reading only. This may be shared with other users, so do not modify it.
+     * @param id
+     * @return
+     */
+    public TextAnnotation get(String id){
+        TextAnnotation ta = overlay.get(id);
+        if(ta == null && annotated != null && annotated.containsKey(id)){
+            // this belongs to the user, so it goes in the overlay.
+            ta = annotated.get(id);
+            overlay.put(id, ta);
+        }
+        if(ta == null){
+            ta = base.get(id);
+        }
+        return ta;
+    }
+
+    /**
+     * Get a document that this user is allowed to modify. This copies the shared document the first time.
+     * @param id
+     * @return the user's own copy, or null if there is no such document.
+     * @throws Exception
+     */
+    public TextAnnotation getForEdit(String id) throws Exception {
+        TextAnnotation ta = get(id);
+        if(ta != null && overlay.get(id) != ta){
+            ta = CorpusService.copy(ta);
+            overlay.put(id, ta);
+        }
+        return ta;
+    }
+
+    /**
+     * Get a document without keeping it in memory (unless it is already loaded). Do not modify it.
+     * @param id
+     * @return
+     * @throws Exception
+     */
+    public TextAnnotation read(String id) throws Exception {
+        TextAnnotation ta = overlay.get(id);
+        if(ta == null && annotated != null && annotated.containsKey(id)){
+            ta = annotated.read(id);
+        }
+        if(ta == null){
+            ta = base.read(id);
+        }
+        return ta;
+    }
+
+    /**
+     * Read every document in parallel, without keeping them in memory, and give each to action. The user's
+     * own version of a document is used where there is one.
+     * @param numthreads
+     * @param action called with the id and the document. Do not modify the document.
+     * @return a map from id to the error for every document that could not be read.
+     * @throws InterruptedException
+     */
+    public Map<String, Exception> readAll(int numthreads, BiConsumer<String, TextAnnotation> action) throws InterruptedException {
+        Map<String, Exception> errors = new TreeMap<>(new KeyComparator());
+        errors.putAll(base.readAll(numthreads, (id, ta) -> {
+            if(!overlay.containsKey(id) && !inAnnotated(id)) {
+                action.accept(id, ta);
+            }
+        }));
+        if(annotated != null){
+            errors.putAll(annotated.readAll(numthreads, (id, ta) -> {
+                if(!overlay.containsKey(id)) {
+                    action.accept(id, ta);
+                }
+            }));
+        }
+        for(String id : overlay.keySet()){
+            action.accept(id, overlay.get(id));
+        }
+        return errors;
+    }
+
+    /**
+     * Read every document on disk in parallel, and give each to action. The user annotation folder is read
+     * first, and a document from the shared folder is skipped if the user has a version of it. Edits in this
+     * session are not included, so this is safe to call from a background thread.
+     * @param numthreads
+     * @param action called with the id and the document. Do not modify the document.
+     * @return a map from id to the error for every document that could not be read.
+     * @throws InterruptedException
+     */
+    public Map<String, Exception> readAllStored(int numthreads, BiConsumer<String, TextAnnotation> action) throws InterruptedException {
+        Map<String, Exception> errors = new TreeMap<>(new KeyComparator());
+        if(annotated != null){
+            errors.putAll(annotated.readAll(numthreads, action));
+        }
+        errors.putAll(base.readAll(numthreads, (id, ta) -> {
+            if(!inAnnotated(id)) {
+                action.accept(id, ta);
+            }
+        }));
+        return errors;
+    }
+
+    /**
+     * Start loading the neighbors of this document in the background.
+     * @param id
+     */
+    public void readAhead(String id){
+        base.readAhead(id);
+    }
+
+    /**
+     * @param id
+     * @return true if this document can be read without going to disk.
+     */
+    public boolean isLoaded(String id){
+        return overlay.containsKey(id) || (!inAnnotated(id) && base.isLoaded(id));
+    }
+
+    private boolean inAnnotated(String id){
+        return annotated != null && annotated.containsKey(id);
+    }
+
+    public boolean containsKey(String id){
+        return overlay.containsKey(id) || inAnnotated(id) || base.containsKey(id);
+    }
+
+    public int size(){
+        return keySet().size();
+    }
+
+    public SortedSet<String> keySet(){
+        TreeSet<String> keys = new TreeSet<>(new KeyComparator());
+        keys.addAll(base.keySet());
+        if(annotated != null) {
+            keys.addAll(annotated.keySet());
+        }
+        keys.addAll(overlay.keySet());
+        return keys;
+    }
+
+    /**
+     * The ids of all documents that are already in memory.
+     * @return
+     */
+    public SortedSet<String> loadedKeySet(){
+        TreeSet<String> keys = new TreeSet<>(new KeyComparator());
+        for(String id : keySet()){
+            if(isLoaded(id)){
+                keys.add(id);
+            }
+        }
+        return keys;
+    }
+
+    public String firstKey(){
+        String first = min(base.firstKey(), annotated == null ? null : annotated.firstKey());
+        return min(first, overlay.isEmpty() ? null : overlay.firstKey());
+    }
+
+    public String lastKey(){
+        String last = max(base.lastKey(), annotated == null ? null : annotated.lastKey());
+        return max(last, overlay.isEmpty() ? null : overlay.lastKey());
+    }
+
+    public String lowerKey(String id){
+        return max(max(base.lowerKey(id), annotated == null ? null : annotated.lowerKey(id)), overlay.lowerKey(id));
+    }
+
+    public String higherKey(String id){
+        return min(min(base.higherKey(id), annotated == null ? null : annotated.higherKey(id)), overlay.higherKey(id));
+    }
+
+    private String min(String a, String b){
+        if(a == null) return b;
+        if(b == null) return a;
+        return overlay.comparator().compare(a, b) <= 0 ? a : b;
+    }
+
+    private String max(String a, String b){
+        if(a == null) return b;
+        if(b == null) return a;
+        return overlay.comparator().compare(a, b) >= 0 ? a : b;
+    }
+}
@@ -29,110 +29,83 @@ public class FeatureExtractor {
 
         // TODO: this should all be in lowercase, but it messes up the pattern matching back in the ta
         for(Constituent c : ner.getConstituents()){
-            String surface = c.getTokenizedSurfaceForm();
-
-            IntPair span = c.getSpan();
-
-            // deal with padding.
-            String prevword = "_";
-            String prevprevword = "_";
-            if(span.getFirst() > 0) {
-                prevword = ta.getToken(span.getFirst() - 1);
+            for(String feat : features(c)){
+                myfeats.addConstituent(new Constituent(feat, "feats", ta, c.getStartSpan(), c.getEndSpan()));
             }
-            if(span.getFirst() > 1){
-                prevprevword = ta.getToken(span.getFirst()-2);
-            }
-
-            myfeats.addConstituent(new Constituent("context-before=" + prevword, "feats", ta, span.getFirst(), span.getSecond()));
-            myfeats.addConstituent(new Constituent("context-before=" + prevprevword + "_" + prevword, "feats", ta, span.getFirst(), span.getSecond()));
+        }
+        ta.addView("feats", myfeats);
+    }
 
-            // deal with padding.
-            String nextword = "_";
-            String nextnextword = "_";
-            if(span.getSecond() < ta.size() -1 ) {
-                nextword = ta.getToken(span.getSecond() + 1);
-            }
-            if(span.getSecond() < ta.size()-2 ){
-                nextnextword = ta.getToken(span.getSecond()+2);
-            }
+    /**
+     * The features of a single NER constituent.
+     * @param c
+     * @return
+     */
+    public static List<String> features(Constituent c){
+        TextAnnotation ta = c.getTextAnnotation();
+        String surface = c.getTokenizedSurfaceForm();
+
+        IntPair span = c.getSpan();
+        List<String> feats = new ArrayList<>();
+
+        // deal with padding.
+        String prevword = "_";
+        String prevprevword = "_";
+        if(span.getFirst() > 0) {
+            prevword = ta.getToken(span.getFirst() - 1);
+        }
+        if(span.getFirst() > 1){
+            prevprevword = ta.getToken(span.getFirst()-2);
+        }
 
-            myfeats.addConstituent(new Constituent("context-after=" + nextword, "feats", ta, span.getFirst(), span.getSecond()));
-            myfeats.addConstituent(new Constituent("context-after=" + nextword + "_" + nextnextword, "feats", ta, span.getFirst(), span.getSecond()));
+        feats.add("context-before=" + prevword);
+        feats.add("context-before=" + prevprevword + "_" + prevword);
 
-            myfeats.addConstituent(new Constituent("full-string=" + surface.replaceAll(" ", "_"), "feats", ta, span.getFirst(), span.getSecond()));
+        // deal with padding.
+        String nextword = "_";
+        String nextnextword = "_";
+        if(span.getSecond() < ta.size() -1 ) {
+            nextword = ta.getToken(span.getSecond() + 1);
+        }
+        if(span.getSecond() < ta.size()-2 ){
+            nextnextword = ta.getToken(span.getSecond()+2);
+        }
 
+        feats.add("context-after=" + nextword);
+        feats.add("context-after=" + nextword + "_" + nextnextword);
 
-//            for(String token : surface.split(" ")) {
-//                myfeats.addConstituent(new Constituent("contains=" + token, "feats", ta, span.getFirst(), span.getSecond()));
-//            }
+        feats.add("full-string=" + surface.replaceAll(" ", "_"));
 
-//            if(!StringUtils.isAlpha(surface)){
-//                //feats.add();
-//                myfeats.addConstituent(new Constituent("nonalpha=" + surface, "feats", ta, span.getFirst(), span.getSecond()));
-//            }
+//        for(String token : surface.split(" ")) {
+//            feats.add("contains=" + token);
+//        }
 
+//        if(!StringUtils.isAlpha(surface)){
+//            feats.add("nonalpha=" + surface);
+//        }
 
-        }
-        ta.addView("feats", myfeats);
+        return feats;
     }
 
     /**
-     * Given a TextAnnotation and the list of patterns (which is??), return suggestions.
+     * Given a TextAnnotation and the list of patterns (which is??), return suggestions. The patterns are compiled
+     * into a {@link FeatureMatcher} on every call, so prefer {@link #findfeatfires(TextAnnotation, PatternStats)}.
      * @param ta
      * @param patterns
      * @return
      */
-    public static List<Suggestion> findfeatfires(TextAnnotation ta, HashMap<Pair<String, String>, Double> patterns){
-        List<Suggestion> suggestions = new ArrayList<>();
-
-        for(Pair<String,String> feat : patterns.keySet()){
-            String featname = feat.getFirst();
-            String label = feat.getSecond();
-            if(featname.startsWith("context-before")){
-                String context = featname.split("=")[1];
-                if(context.contains("_")){
-                    context = context.replaceAll("_", " ");
-                }
-
-                // now find occurrences of this context in the ta.
-                for(IntPair span : ta.getSpansMatching(context)){
-                    IntPair nextspan = new IntPair(span.getSecond(), span.getSecond()+1);
-                    if(span.getSecond() < ta.size()) {
-                        Suggestion s = new Suggestion(nextspan, label, String.format("%s for %s, weight: %f", featname, label, patterns.get(feat)));
-                        suggestions.add(s);
-                    }
-                }
-            }else if(featname.startsWith("context-after")){
-                String context = featname.split("=")[1];
-                if(context.contains("_")){
-                    context = context.replaceAll("_", " ");
-                }
-
-                // now find occurrences of this context in the ta.
-                for(IntPair span : ta.getSpansMatching(context)){
-                    IntPair prevspan = new IntPair(span.getFirst()-1, span.getFirst());
-                    if(span.getFirst() > 0) {
-                        Suggestion s = new Suggestion(prevspan, label, String.format("%s for %s, weight: %f", featname, label, patterns.get(feat)));
-                        suggestions.add(s);
-                    }
-                }
-            }else if(featname.startsWith("full-string")){
-                String surface = featname.split("=")[1];
-                if(surface.contains("_")){
-                    surface = surface.replaceAll("_", " ");
-                }
-
-                // now find occurrences of this context in the ta.
-                for(IntPair span : ta.getSpansMatching(surface)){
-                    Suggestion s = new Suggestion(span, label, String.format("%s for %s, weight: %f", featname, label, patterns.get(feat)));
-                    suggestions.add(s);
-                }
-            }
-
-
-        }
+    public static List<Suggestion> findfeatfires(TextAnnotation ta, Map<Pair<String, String>, Double> patterns){
+        return new FeatureMatcher(patterns).match(ta);
+    }
 
-        return suggestions;
+    /**
+     * Same as {@link #findfeatfires(TextAnnotation, Map)}, but the compiled patterns are kept until they change.
+     * @param ta
+     * @param stats
+     * @return
+     */
+    public static List<Suggestion> findfeatfires(TextAnnotation ta, PatternStats stats){
+        return stats.getMatcher().match(ta);
     }
 
 }
@@ -0,0 +1,177 @@
+package io.github.mayhewsw;
+
+import edu.illinois.cs.cogcomp.core.datastructures.IntPair;
+import edu.illinois.cs.cogcomp.core.datastructures.Pair;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+
+import java.util.*;
+
+/**
+ * All the patterns from {@link PatternStats} compiled into one token-level Aho-Corasick automaton, so that every
+ * context-before, context-after and full-string pattern can be found in a single pass over the tokens of a
+ * document.
+ *
+ * Each pattern is a sequence of tokens (the feature value split on "_"). A match is turned into a suggestion
+ * exactly as {@link FeatureExtractor#findfeatfires} always did: the token after a context-before match, the
+ * token before a context-after match, and the span itself for a full-string match.
+ *
+ * Building a matcher is linear in the total length of the patterns. Use {@link PatternStats#getMatcher()}, which
+ * keeps the matcher until the patterns change.
+ */
+public class FeatureMatcher {
+
+    private static final int BEFORE = 0;
+    private static final int AFTER = 1;
+    private static final int FULL = 2;
+
+    // per pattern: kind, length in tokens, label and reason.
+    private final int[] kinds;
+    private final int[] lengths;
+    private final String[] labels;
+    private final String[] reasons;
+
+    // the automaton. Node 0 is the root.
+    private final List<HashMap<String, Integer>> transitions = new ArrayList<>();
+    private int[] fail;
+    // the patterns that end at each node, and the nearest node on the fail chain that has any (or -1).
+    private final List<int[]> outputs = new ArrayList<>();
+    private int[] dictlink;
+
+    /**
+     * Compile these patterns. Features other than context-before, context-after and full-string are ignored.
+     * @param patterns maps from (feature, label) to weight
+     */
+    public FeatureMatcher(Map<Pair<String, String>, Double> patterns){
+        // the patterns may be changing in another thread, so work from a copy.
+        List<Map.Entry<Pair<String, String>, Double>> entries = new ArrayList<>(patterns.entrySet());
+        int n = entries.size();
+        kinds = new int[n];
+        lengths = new int[n];
+        labels = new String[n];
+        reasons = new String[n];
+
+        transitions.add(new HashMap<>());
+        List<List<Integer>> ends = new ArrayList<>();
+        ends.add(new ArrayList<>());
+
+        int id = 0;
+        for(Map.Entry<Pair<String, String>, Double> e : entries){
+            String featname = e.getKey().getFirst();
+            String label = e.getKey().getSecond();
+
+            int kind;
+            if(featname.startsWith("context-before")){
+                kind = BEFORE;
+            }else if(featname.startsWith("context-after")){
+                kind = AFTER;
+            }else if(featname.startsWith("full-string")){
+                kind = FULL;
+            }else{
+                continue;
+            }
+
+            int eq = featname.indexOf('=');
+            if(eq < 0){
+                continue;
+            }
+            String[] tokens = featname.substring(eq + 1).split("_", -1);
+
+            int node = 0;
+            for(String token : tokens){
+                Integer next = transitions.get(node).get(token);
+                if(next == null){
+                    next = transitions.size();
+                    transitions.get(node).put(token, next);
+                    transitions.add(new HashMap<>());
+                    ends.add(new ArrayList<>());
+                }
+                node = next;
+            }
+
+            kinds[id] = kind;
+            lengths[id] = tokens.length;
+            labels[id] = label;
+            reasons[id] = String.format("%s for %s, weight: %f", featname, label, e.getValue());
+            ends.get(node).add(id);
+            id++;
+        }
+
+        for(List<Integer> end : ends){
+            int[] out = new int[end.size()];
+            for(int i = 0; i < out.length; i++){
+                out[i] = end.get(i);
+            }
+            outputs.add(out);
+        }
+
+        // breadth first, so the fail link of a node is always done before its children.
+        fail = new int[transitions.size()];
+        dictlink = new int[transitions.size()];
+        dictlink[0] = -1;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for(int child : transitions.get(0).values()){
+            fail[child] = 0;
+            dictlink[child] = -1;
+            queue.add(child);
+        }
+        while(!queue.isEmpty()){
+            int node = queue.poll();
+            for(Map.Entry<String, Integer> t : transitions.get(node).entrySet()){
+                int child = t.getValue();
+                int f = fail[node];
+                while(f != 0 && !transitions.get(f).containsKey(t.getKey())){
+                    f = fail[f];
+                }
+                Integer target = transitions.get(f).get(t.getKey());
+                fail[child] = target == null ? 0 : target;
+                dictlink[child] = outputs.get(fail[child]).length > 0 ? fail[child] : dictlink[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    public int numStates(){
+        return transitions.size();
+    }
+
+    /**
+     * Find every pattern that fires in this document.
+     * @param ta
+     * @return suggestions, in token order.
+     */
+    public List<Suggestion> match(TextAnnotation ta){
+        List<Suggestion> suggestions = new ArrayList<>();
+        String[] tokens = ta.getTokens();
+
+        int node = 0;
+        for(int i = 0; i < tokens.length; i++){
+            Integer next = transitions.get(node).get(tokens[i]);
+            while(next == null && node != 0){
+                node = fail[node];
+                next = transitions.get(node).get(tokens[i]);
+            }
+            node = next == null ? 0 : next;
+
+            // the span that just matched is [i+1-length, i+1).
+            for(int n = outputs.get(node).length > 0 ? node : dictlink[node]; n > 0; n = dictlink[n]){
+                for(int p : outputs.get(n)){
+                    int end = i + 1;
+                    int start = end - lengths[p];
+                    if(kinds[p] == BEFORE){
+                        if(end < tokens.length) {
+                            suggestions.add(new Suggestion(new IntPair(end, end + 1), labels[p], reasons[p]));
+                        }
+                    }else if(kinds[p] == AFTER){
+                        if(start > 0) {
+                            suggestions.add(new Suggestion(new IntPair(start - 1, start), labels[p], reasons[p]));
+                        }
+                    }else{
+                        suggestions.add(new Suggestion(new IntPair(start, end), labels[p], reasons[p]));
+                    }
+                }
+            }
+        }
+
+        return suggestions;
+    }
+}
@@ -1,22 +1,33 @@
 package io.github.mayhewsw;
 
+import io.github.mayhewsw.utils.SentenceCache;
+import io.github.mayhewsw.utils.SentenceIds;
+import io.github.mayhewsw.utils.SentenceSet;
+
 import java.util.HashMap;
-import java.util.HashSet;
 
 /**
- * This is meant to add functionality to the hashset. 
+ * This is meant to add functionality to the sentence set.
  * 
  * Created by stephen on 6/29/17.
  */
-public class Group extends HashSet<String> {
+public class Group extends SentenceSet {
     
     // is all annotated?
     // label dictionary
     // most common label
-    private HashSet<String> anno = new HashSet<>();
+    private SentenceSet anno;
 
     private HashMap<String, Integer> typemap = new HashMap<>();
 
+    /**
+     * @param ids the sentence ordinals of the dataset, see {@link SentenceCache#getSentenceIds()}
+     */
+    public Group(SentenceIds ids){
+        super(ids);
+        anno = new SentenceSet(ids);
+    }
+
     /**
      * Add an annotated sentence.
      * @param sent
@@ -27,7 +38,7 @@ public class Group extends HashSet<String> {
         this.addType(type);
     }
 
-    public HashSet<String> getAnno() {
+    public SentenceSet getAnno() {
         return anno;
     }
 
@@ -0,0 +1,101 @@
+package io.github.mayhewsw;
+
+import io.github.mayhewsw.utils.SentenceIds;
+import io.github.mayhewsw.utils.SentenceSet;
+
+import java.util.*;
+
+/**
+ * Which groups each sentence belongs in. A sentence that is in any group must also be in the group of every term
+ * whose search results contain it. Rather than asking every term about every sentence, this keeps an inverted map
+ * from sentence to the terms whose results contain it, so placing a sentence is a single lookup. Sentences are
+ * dense ordinals (see {@link SentenceIds}), so the map is a list indexed by ordinal. All sets passed in must use
+ * the same SentenceIds as this index.
+ *
+ * Each term is indexed once, when it first shows up as a group key. Groups never lose sentences, so it is enough
+ * to remember which sentences have been placed already (see {@link #unresolved(SentenceSet)}), and only look at
+ * new terms and new sentences (see {@link io.github.mayhewsw.controllers.SentenceController#updategroups}).
+ */
+public class GroupIndex {
+
+    // maps from sentence ordinal to the terms whose results contain it, or null if there are none.
+    private final ArrayList<List<String>> ord2terms = new ArrayList<>();
+
+    // terms whose results are in ord2terms.
+    private final HashSet<String> terms = new HashSet<>();
+
+    // sentences that have been added to the group of every term that contains them.
+    private final SentenceSet resolved;
+
+    public GroupIndex(SentenceIds ids){
+        resolved = new SentenceSet(ids);
+    }
+
+    public boolean isIndexed(String term){
+        return terms.contains(term);
+    }
+
+    /**
+     * Record the search results of a term. Call this once per term.
+     * @param term
+     * @param results all sentences containing term
+     */
+    public void index(String term, SentenceSet results){
+        if(!terms.add(term)){
+            return;
+        }
+        for(int ord = results.nextOrd(0); ord >= 0; ord = results.nextOrd(ord + 1)){
+            while(ord2terms.size() <= ord){
+                ord2terms.add(null);
+            }
+            List<String> sentterms = ord2terms.get(ord);
+            if(sentterms == null){
+                sentterms = new ArrayList<>(2);
+                ord2terms.set(ord, sentterms);
+            }
+            sentterms.add(term);
+        }
+    }
+
+    /**
+     * Forget a term, for when its group is removed. If it comes back, it is indexed again.
+     * @param term
+     */
+    public void remove(String term){
+        if(!terms.remove(term)){
+            return;
+        }
+        for(int ord = 0; ord < ord2terms.size(); ord++){
+            List<String> sentterms = ord2terms.get(ord);
+            if(sentterms != null){
+                sentterms.remove(term);
+                if(sentterms.isEmpty()){
+                    ord2terms.set(ord, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param ord a sentence ordinal
+     * @return the indexed terms whose results contain this sentence.
+     */
+    public List<String> getTerms(int ord){
+        List<String> sentterms = ord < ord2terms.size() ? ord2terms.get(ord) : null;
+        return sentterms == null ? Collections.emptyList() : sentterms;
+    }
+
+    /**
+     * @param sents
+     * @return a new set with the sentences in sents that have not been resolved yet.
+     */
+    public SentenceSet unresolved(SentenceSet sents){
+        SentenceSet ret = new SentenceSet(sents);
+        ret.removeAll(resolved);
+        return ret;
+    }
+
+    public void setResolved(SentenceSet sents){
+        resolved.addAll(sents);
+    }
+}
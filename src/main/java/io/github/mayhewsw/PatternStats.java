@@ -0,0 +1,241 @@
+package io.github.mayhewsw;
+
+import edu.illinois.cs.cogcomp.core.datastructures.Pair;
+import edu.illinois.cs.cogcomp.core.datastructures.ViewNames;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.Constituent;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts of (feature, label) pairs over all NER spans in a dataset, and the patterns that follow from them, as in
+ * Collins and Singer (1999). A pattern is a (feature, label) pair with a smoothed precision above a threshold.
+ *
+ * This is kept up to date one document at a time: {@link #update(String, TextAnnotation)} takes away what the
+ * document contributed before and adds what it contributes now, then scores only the features that changed.
+ * Features and labels are interned to ints, and counts are kept in int arrays.
+ *
+ * The patterns map (see {@link #getPatterns()}) is changed in place, and may be read by other threads. Each
+ * update bumps a modification count, so that the compiled patterns (see {@link #getMatcher()}) are only rebuilt
+ * when something has changed.
+ */
+public class PatternStats {
+
+    private static Logger logger = LoggerFactory.getLogger(PatternStats.class);
+
+    // these values come directly from collins and singer paper.
+    private static final double alpha = 0.1;
+    private static final double threshold = 0.95;
+    // this allows that full-strings need only appear 2 or 3 times.
+    private static final double fullstringthreshold = 0.8;
+
+    // the number of labels, used in smoothing.
+    private final int k;
+
+    private final HashMap<String, Integer> featids = new HashMap<>();
+    private final List<String> featnames = new ArrayList<>();
+    private final HashMap<String, Integer> labelids = new HashMap<>();
+    private final List<String> labelnames = new ArrayList<>();
+
+    // counts[feat][label] is the count of (feature, label), and featcounts[feat] is the count of the feature.
+    private int[][] counts = new int[16][];
+    private int[] featcounts = new int[16];
+
+    // maps from document id to the (feature, label) pairs it has contributed, packed as feat << 32 | label.
+    private final HashMap<String, long[]> contributions = new HashMap<>();
+
+    private final ConcurrentHashMap<Pair<String, String>, Double> patterns = new ConcurrentHashMap<>();
+
+    // the number of updates so far, and the matcher with the modification count it was built at.
+    private volatile long modcount = 0;
+    private FeatureMatcher matcher;
+    private long matchercount = -1;
+
+    /**
+     * @param labels the labels of this dataset
+     */
+    public PatternStats(List<String> labels){
+        this.k = labels.size();
+        for(String label : labels){
+            labelid(label);
+        }
+    }
+
+    /**
+     * The current patterns, mapping from (feature, label) to score. This changes as documents are updated.
+     * @return
+     */
+    public Map<Pair<String, String>, Double> getPatterns(){
+        return patterns;
+    }
+
+    /**
+     * @return a number that changes every time the patterns may have changed.
+     */
+    public long getModCount(){
+        return modcount;
+    }
+
+    /**
+     * The current patterns, compiled into a matcher. This is rebuilt (outside the lock of this object) the first
+     * time it is asked for after an update.
+     * @return
+     */
+    public FeatureMatcher getMatcher(){
+        long count = modcount;
+        synchronized (this) {
+            if(matcher != null && matchercount == count){
+                return matcher;
+            }
+        }
+        FeatureMatcher m = new FeatureMatcher(patterns);
+        synchronized (this) {
+            // keep the newest one, in case another thread built one at the same time.
+            if(count > matchercount){
+                matcher = m;
+                matchercount = count;
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Count the spans of every document in this set. Documents that have been updated already are skipped,
+     * because their counts are newer. This reads every document, so it is meant to run in the background.
+     * @param tas
+     */
+    public void addAll(DocumentSet tas){
+        Map<String, Exception> errors;
+        try {
+            errors = tas.readAllStored(Runtime.getRuntime().availableProcessors(), this::addIfAbsent);
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while counting patterns.");
+            return;
+        }
+
+        for(String id : errors.keySet()){
+            logger.error("Could not read " + id + " for patterns: " + errors.get(id).getMessage());
+        }
+        logger.info("Done counting patterns: {} patterns from {} documents.", patterns.size(), contributions.size());
+    }
+
+    private synchronized void addIfAbsent(String id, TextAnnotation ta){
+        if(!contributions.containsKey(id)){
+            update(id, ta);
+        }
+    }
+
+    /**
+     * Recount a document after its NER view has changed.
+     * @param id
+     * @param ta
+     */
+    public synchronized void update(String id, TextAnnotation ta){
+        long[] before = contributions.getOrDefault(id, new long[0]);
+        long[] after = contribution(ta);
+
+        for(long pair : before){
+            add(pair, -1);
+        }
+        for(long pair : after){
+            add(pair, 1);
+        }
+        contributions.put(id, after);
+
+        // score each touched feature once.
+        HashSet<Integer> touched = new HashSet<>();
+        for(long pair : before){
+            touched.add((int) (pair >>> 32));
+        }
+        for(long pair : after){
+            touched.add((int) (pair >>> 32));
+        }
+        for(int feat : touched){
+            score(feat);
+        }
+        modcount++;
+    }
+
+    /**
+     * The (feature, label) pairs of every NER span in this document.
+     * @param ta
+     * @return
+     */
+    private long[] contribution(TextAnnotation ta){
+        if(!ta.hasView(ViewNames.NER_CONLL)){
+            return new long[0];
+        }
+
+        List<Long> pairs = new ArrayList<>();
+        for(Constituent c : ta.getView(ViewNames.NER_CONLL).getConstituents()){
+            long label = labelid(c.getLabel());
+            for(String feat : FeatureExtractor.features(c)){
+                pairs.add((long) featid(feat) << 32 | label);
+            }
+        }
+
+        long[] ret = new long[pairs.size()];
+        for(int i = 0; i < ret.length; i++){
+            ret[i] = pairs.get(i);
+        }
+        return ret;
+    }
+
+    private void add(long pair, int delta){
+        int feat = (int) (pair >>> 32);
+        int label = (int) pair;
+        counts[feat][label] += delta;
+        featcounts[feat] += delta;
+    }
+
+    /**
+     * Recompute the patterns for one feature.
+     * @param feat
+     */
+    private void score(int feat){
+        String featname = featnames.get(feat);
+        double cutoff = featname.startsWith("full-string") ? fullstringthreshold : threshold;
+        int[] featlabels = counts[feat];
+        for(int label = 0; label < featlabels.length; label++){
+            Pair<String, String> fp = new Pair<>(featname, labelnames.get(label));
+            double newvalue = (featlabels[label] + alpha) / (featcounts[feat] + k*alpha);
+            if(featlabels[label] > 0 && newvalue > cutoff){
+                patterns.put(fp, newvalue);
+            }else{
+                patterns.remove(fp);
+            }
+        }
+    }
+
+    private int featid(String feat){
+        Integer id = featids.get(feat);
+        if(id == null){
+            id = featnames.size();
+            featids.put(feat, id);
+            featnames.add(feat);
+            if(id == counts.length){
+                counts = Arrays.copyOf(counts, id * 2);
+                featcounts = Arrays.copyOf(featcounts, id * 2);
+            }
+            counts[id] = new int[labelnames.size()];
+        }
+        return id;
+    }
+
+    private int labelid(String label){
+        Integer id = labelids.get(label);
+        if(id == null){
+            id = labelnames.size();
+            labelids.put(label, id);
+            labelnames.add(label);
+            // labels not given up front are rare, so just grow every row.
+            for(int feat = 0; feat < featnames.size(); feat++){
+                counts[feat] = Arrays.copyOf(counts[feat], labelnames.size());
+            }
+        }
+        return id;
+    }
+}
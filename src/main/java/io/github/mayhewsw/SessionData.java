@@ -4,6 +4,7 @@ import edu.illinois.cs.cogcomp.core.datastructures.Pair;
 import edu.illinois.cs.cogcomp.core.datastructures.textannotation.Constituent;
 import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
 import io.github.mayhewsw.utils.SentenceCache;
+import io.github.mayhewsw.utils.SuffixStemmer;
 import org.apache.lucene.store.RAMDirectory;
 
 import javax.servlet.http.HttpSession;
@@ -26,12 +27,15 @@ public class SessionData {
     public Boolean showgoogle;
 
 
-    public TreeMap<String, TextAnnotation> tas;
+    public DocumentSet tas;
     public String dataname;
-    public HashMap<Pair<String, String>, Double> patterns;
+    public Map<Pair<String, String>, Double> patterns;
+    public PatternStats patternstats;
+    public String statskey;
     public RAMDirectory ramDirectory;
 
     public ArrayList<String> suffixes;
+    public SuffixStemmer stemmer;
     public Properties prop;
 
     public SentenceCache cache;
@@ -42,13 +46,16 @@ public class SessionData {
     public String indexpath;
 
     public HashMap<String, Group> groups;
+    public GroupIndex groupindex;
     public String logfile;
 
     public SessionData(HttpSession hs){
 
-        tas = (TreeMap<String, TextAnnotation>) hs.getAttribute("tas");
+        tas = (DocumentSet) hs.getAttribute("tas");
         dict = (Dictionary) hs.getAttribute("dict");
-        patterns = (HashMap<Pair<String, String>, Double>) hs.getAttribute("patterns");
+        patterns = (Map<Pair<String, String>, Double>) hs.getAttribute("patterns");
+        patternstats = (PatternStats) hs.getAttribute("patternstats");
+        statskey = (String) hs.getAttribute("statskey");
 
         username = (String) hs.getAttribute("username");
         dataname = (String) hs.getAttribute("dataname");
@@ -76,6 +83,7 @@ public class SessionData {
         }
 
         suffixes = (ArrayList<String>) hs.getAttribute("suffixes");
+        stemmer = (SuffixStemmer) hs.getAttribute("stemmer");
 
         prop = (Properties) hs.getAttribute("prop");
         labels = (List<String>) hs.getAttribute("labels");
@@ -87,6 +95,7 @@ public class SessionData {
         //annosents = (HashMap<String, HashSet<String>>) hs.getAttribute("annosents");
 
         groups = (HashMap<String, Group>) hs.getAttribute("groups");
+        groupindex = (GroupIndex) hs.getAttribute("groupindex");
 
         logfile = (String) hs.getAttribute("logfile");
 
@@ -10,12 +10,15 @@ import io.github.mayhewsw.controllers.SentenceController;
 import org.apache.commons.cli.*;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.*;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.analysis.*;
 import org.apache.lucene.analysis.shingle.ShingleFilter;
 import org.apache.lucene.analysis.core.WhitespaceTokenizer;
@@ -24,9 +27,18 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This terminal application creates an Apache Lucene index in a folder and adds files into this index
@@ -104,62 +116,220 @@ public class TextFileIndexer {
      * @throws IOException
      */
     public static void buildsentenceindex(String inpath, String indexDir) throws Exception {
+        buildsentenceindex(inpath, indexDir, 1, false);
+    }
+
+    /**
+     * This builds an index of sentences using a pool of worker threads. Each worker reads and deserializes
+     * a document, builds the Lucene documents for its sentences, and adds them to the shared IndexWriter
+     * (which is thread safe). Files that fail to parse are reported and skipped.
+     *
+     * Every commit records the modification time and length of each indexed file in the commit user data. If
+     * incremental is true and the index already exists, only files that are new or have changed since the last
+     * commit are (re)indexed, and sentences from files that have been removed are deleted. Since the index is
+     * committed periodically, an interrupted build can be resumed by running it again in incremental mode.
+     *
+     * @param inpath folder of json TextAnnotations
+     * @param indexDir folder to write the index to
+     * @param numthreads number of worker threads
+     * @param incremental whether to update an existing index or build it from scratch
+     * @throws Exception
+     */
+    public static void buildsentenceindex(String inpath, String indexDir, int numthreads, boolean incremental) throws Exception {
 
         FSDirectory dir = FSDirectory.open(Paths.get(indexDir));
+
+        // maps from file name to file signature, as of the last commit.
+        Map<String, String> indexed = new HashMap<>();
+        if(incremental && DirectoryReader.indexExists(dir)){
+            List<IndexCommit> commits = DirectoryReader.listCommits(dir);
+            indexed.putAll(commits.get(commits.size() - 1).getUserData());
+
+            if(indexed.isEmpty()){
+                // an index built before file signatures were recorded can't be updated in place.
+                System.out.println("Index has no record of indexed files. Rebuilding from scratch.");
+                incremental = false;
+            }
+        }
+
         IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setOpenMode(incremental ? IndexWriterConfig.OpenMode.CREATE_OR_APPEND : IndexWriterConfig.OpenMode.CREATE);
+        // a larger buffer means fewer, bigger segments when many threads are writing.
+        config.setRAMBufferSizeMB(256);
         IndexWriter writer = new IndexWriter(dir, config);
 
+        // this is what is written with each commit.
+        Map<String, String> state = new ConcurrentHashMap<>();
+        if(incremental) {
+            state.putAll(indexed);
+        }
+
         File tapath = new File(inpath);
         File[] filelist = tapath.listFiles();
-        int j = 0;
+
+        // delete sentences from files that are no longer there.
+        HashSet<String> currentfiles = new HashSet<>();
         for(File f : filelist){
-            System.out.println(f.getAbsolutePath());
-            if(j%10 == 0){
-                System.out.println("On file " + j + "/" + filelist.length);
+            currentfiles.add(f.getName());
+        }
+        int removed = 0;
+        for(String fname : indexed.keySet()){
+            if(!currentfiles.contains(fname)){
+                writer.deleteDocuments(new Term("sourcefile", fname));
+                state.remove(fname);
+                removed++;
             }
-            j++;
+        }
 
-            TextAnnotation ta = SerializationHelper.deserializeFromJson(TextFileIndexer.read(f.getAbsolutePath()));
+        // only index files which are new or have changed.
+        List<File> todo = new ArrayList<>();
+        for(File f : filelist){
+            if(!incremental || !getSignature(f).equals(state.get(f.getName()))){
+                todo.add(f);
+            }
+        }
 
-            View sentview = ta.getView(ViewNames.SENTENCE);
-            List<Constituent> sentences = sentview.getConstituents();
+        System.out.println(String.format("Indexing %d files (%d unchanged, %d removed) with %d threads.",
+                todo.size(), filelist.length - todo.size(), removed, numthreads));
+
+        ExecutorService pool = Executors.newFixedThreadPool(numthreads);
+        AtomicInteger filesdone = new AtomicInteger(0);
+        AtomicInteger failures = new AtomicInteger(0);
+        AtomicLong sentsdone = new AtomicLong(0);
+        long starttime = System.currentTimeMillis();
+
+        for(File f : todo){
+            pool.submit(() -> {
+                try {
+                    String signature = getSignature(f);
+                    TextAnnotation ta = SerializationHelper.deserializeFromJson(TextFileIndexer.read(f.getAbsolutePath()));
+                    List<Document> docs = getSentenceDocuments(ta, f.getName());
+
+                    // this replaces any sentences previously indexed from this file.
+                    writer.updateDocuments(new Term("sourcefile", f.getName()), docs);
+                    state.put(f.getName(), signature);
+                    sentsdone.addAndGet(docs.size());
+                } catch (Exception e) {
+                    System.err.println("Failed to index " + f.getAbsolutePath() + ": " + e.getMessage());
+                    failures.incrementAndGet();
+                }
 
-            View roman = null;
-            if(ta.hasView("ROMANIZATION")){
-                roman = ta.getView("ROMANIZATION");
-            }
+                int j = filesdone.incrementAndGet();
+                if(j % 100 == 0 || j == todo.size()){
+                    printProgress(j, todo.size(), sentsdone.get(), starttime);
+                }
+                if(j % COMMIT_INTERVAL == 0){
+                    commit(writer, state);
+                }
+            });
+        }
 
-            for(int i = 0; i < sentences.size(); i++){
-                Constituent sent = sentences.get(i);
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
 
-                Document d = new Document();
+        commit(writer, state);
+        writer.close();
 
-                TextField tf = new TextField("body", sent.getTokenizedSurfaceForm(), Field.Store.YES);
-                d.add(tf);
+        if(failures.get() > 0){
+            System.err.println(failures.get() + " files could not be indexed.");
+        }
+    }
 
-                // add romanization text (also as body) if the view exists.
-                if(roman != null) {
-                    StringJoiner sb = new StringJoiner(" ");
-                    for(Constituent c : roman.getConstituentsCoveringSpan(sent.getStartSpan(), sent.getEndSpan())){
-                        sb.add(c.getLabel());
-                    }
-                    String rom = sb.toString();
-                    TextField romtf = new TextField("body", rom, Field.Store.YES);
-                    d.add(romtf);
-                }
+    /**
+     * Number of files to index between commits. If the indexer dies, at most this many files need to be redone.
+     */
+    private static final int COMMIT_INTERVAL = 5000;
 
-                d.add(new StringField("filename", SentenceController.getSentId(sent), Field.Store.YES));
+    /**
+     * Commit the index along with the signatures of all files indexed so far. The state is copied before
+     * committing, so every file recorded in the commit has all its sentences in that commit.
+     * @param writer
+     * @param state
+     */
+    private static synchronized void commit(IndexWriter writer, Map<String, String> state) {
+        try {
+            Map<String, String> snapshot = new HashMap<>(state);
+            writer.setLiveCommitData(snapshot.entrySet());
+            writer.commit();
+        } catch (IOException e) {
+            System.err.println("Failed to commit index: " + e.getMessage());
+        }
+    }
 
-                // "orig" in this case refers to original script. If the script is already roman, or if the ROMANIZATION view
-                // is not present, then body and origbody will be identical.
-                //TextField origtf = new TextField("origbody", sent.getTokenizedSurfaceForm(), Field.Store.YES);
-                //d.add(origtf);
+    /**
+     * This is used to tell if a file has changed since it was indexed.
+     * @param f
+     * @return
+     */
+    private static String getSignature(File f){
+        return f.lastModified() + ":" + f.length();
+    }
 
-                writer.addDocument(d);
-            }
+    /**
+     * Prints progress and throughput of the indexer.
+     * @param filesdone
+     * @param numfiles
+     * @param sentsdone
+     * @param starttime
+     */
+    private static void printProgress(int filesdone, int numfiles, long sentsdone, long starttime){
+        double seconds = Math.max(System.currentTimeMillis() - starttime, 1) / 1000.0;
+        System.out.println(String.format("On file %d/%d (%.1f docs/sec, %.1f sents/sec)",
+                filesdone, numfiles, filesdone / seconds, sentsdone / seconds));
+    }
+
+    /**
+     * Build one Lucene document for each sentence in this TextAnnotation.
+     * @param ta
+     * @param sourcefile name of the file that ta was read from. This is used to delete or replace sentences later.
+     * @return
+     */
+    public static List<Document> getSentenceDocuments(TextAnnotation ta, String sourcefile){
+        List<Document> docs = new ArrayList<>();
+
+        View sentview = ta.getView(ViewNames.SENTENCE);
+        List<Constituent> sentences = sentview.getConstituents();
+
+        View roman = null;
+        if(ta.hasView("ROMANIZATION")){
+            roman = ta.getView("ROMANIZATION");
         }
 
-        writer.close();
+        for(int i = 0; i < sentences.size(); i++){
+            Constituent sent = sentences.get(i);
+
+            Document d = new Document();
+
+            TextField tf = new TextField("body", sent.getTokenizedSurfaceForm(), Field.Store.YES);
+            d.add(tf);
+
+            // add romanization text (also as body) if the view exists.
+            if(roman != null) {
+                StringJoiner sb = new StringJoiner(" ");
+                for(Constituent c : roman.getConstituentsCoveringSpan(sent.getStartSpan(), sent.getEndSpan())){
+                    sb.add(c.getLabel());
+                }
+                String rom = sb.toString();
+                TextField romtf = new TextField("body", rom, Field.Store.YES);
+                d.add(romtf);
+            }
+
+            String sentid = SentenceController.getSentId(sent);
+            d.add(new StringField("filename", sentid, Field.Store.YES));
+            d.add(new StringField("sourcefile", sourcefile, Field.Store.NO));
+
+            // doc values let searches read sentence ids without loading stored fields (see SentenceIdCollector).
+            d.add(new SortedDocValuesField("filename", new BytesRef(sentid)));
+            d.add(new NumericDocValuesField("sentind", sent.getSentenceId()));
+
+            // "orig" in this case refers to original script. If the script is already roman, or if the ROMANIZATION view
+            // is not present, then body and origbody will be identical.
+            //TextField origtf = new TextField("origbody", sent.getTokenizedSurfaceForm(), Field.Store.YES);
+            //d.add(origtf);
+
+            docs.add(d);
+        }
+        return docs;
     }
 
     /**
@@ -282,11 +452,22 @@ public class TextFileIndexer {
                 .desc("Should we build index before testing, or only test.")
                 .build();
 
+        Option incrementalopt = Option.builder("incremental")
+                .desc("Only index files that are new or changed since the index was last built, and remove deleted files.")
+                .build();
+
+        Option threadsopt = Option.builder("threads")
+                .desc("Number of threads to use when building the index. Default is 1.")
+                .hasArg()
+                .build();
+
         options.addOption(help);
         options.addOption(infolder);
         options.addOption(indexfolder);
         options.addOption(testopt);
         options.addOption(testonlyopt);
+        options.addOption(threadsopt);
+        options.addOption(incrementalopt);
 
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = parser.parse(options, args);
@@ -295,7 +476,8 @@ public class TextFileIndexer {
             testindex(cmd.getOptionValue("indexfolder"));
 
         }else {
-            buildsentenceindex(cmd.getOptionValue("infolder"), cmd.getOptionValue("indexfolder"));
+            int numthreads = Integer.parseInt(cmd.getOptionValue("threads", "1"));
+            buildsentenceindex(cmd.getOptionValue("infolder"), cmd.getOptionValue("indexfolder"), numthreads, cmd.hasOption("incremental"));
             if (cmd.hasOption("test")) {
                 testindex(cmd.getOptionValue("indexfolder"));
             }
@@ -7,6 +7,7 @@ import io.github.mayhewsw.Dictionary;
 import io.github.mayhewsw.SessionData;
 import io.github.mayhewsw.utils.HtmlGenerator;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -29,6 +30,9 @@ public class DictionaryController {
 
     private static Logger logger = LoggerFactory.getLogger(DictionaryController.class);
 
+    // paging further than this in a type-ahead list is not useful, and each page costs offset + limit.
+    private static final int MAXOFFSET = 1000;
+
     @RequestMapping(value="", method=RequestMethod.GET)
     public String showdict(Model model, HttpSession hs) {
         SessionData sd = new SessionData(hs);
@@ -42,7 +46,7 @@ public class DictionaryController {
 
         List<Pair<String, String>> entries = new ArrayList<>();
         int i = 0;
-        for (String key : sd.dict.keySet()) {
+        for (String key : sd.dict.keys()) {
             String valstring = StringUtils.join(sd.dict.get(key), ", ");
             Pair<String, String> p = new Pair<>(key, valstring);
             entries.add(p);
@@ -76,6 +80,55 @@ public class DictionaryController {
     }
 
 
+    /**
+     * Type-ahead lookup. Results are ordered by edit distance, then by key.
+     * @param query
+     * @param edits allow up to this many edits (0 to 2)
+     * @param prefix if true, match keys that start with the query
+     * @param offset the number of results to skip, for paging
+     * @param limit the number of results to return (at most 100)
+     * @param hs
+     * @return the results, each with key, distance and definitions, and whether there are more.
+     */
+    @RequestMapping(value="search", method=RequestMethod.GET)
+    @ResponseBody
+    public Map<String, Object> search(@RequestParam(value="q") String query,
+                                      @RequestParam(value="edits", defaultValue="0") int edits,
+                                      @RequestParam(value="prefix", defaultValue="true") boolean prefix,
+                                      @RequestParam(value="offset", defaultValue="0") int offset,
+                                      @RequestParam(value="limit", defaultValue="20") int limit,
+                                      HttpSession hs) {
+
+        SessionData sd = new SessionData(hs);
+
+        edits = Math.max(0, Math.min(LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE, edits));
+        offset = Math.max(0, Math.min(MAXOFFSET, offset));
+        limit = Math.max(1, Math.min(100, limit));
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        boolean more = false;
+        if(sd.dict != null) {
+            // one extra, to know if there is another page.
+            List<Pair<String, Integer>> found = sd.dict.search(query, edits, prefix, offset + limit + 1);
+            more = found.size() > offset + limit;
+            for (Pair<String, Integer> p : found.subList(Math.min(offset, found.size()), Math.min(offset + limit, found.size()))) {
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("key", p.getFirst());
+                result.put("distance", p.getSecond());
+                result.put("defs", sd.dict.get(p.getFirst()));
+                results.add(result);
+            }
+        }
+
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("query", query);
+        ret.put("offset", offset);
+        ret.put("limit", limit);
+        ret.put("more", more);
+        ret.put("results", results);
+        return ret;
+    }
+
     @RequestMapping(value="add", method=RequestMethod.GET)
     @ResponseStatus(value = HttpStatus.OK)
     @ResponseBody
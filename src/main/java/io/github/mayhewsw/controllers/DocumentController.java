@@ -9,8 +9,13 @@ import edu.illinois.cs.cogcomp.core.io.LineIO;
 import edu.illinois.cs.cogcomp.core.utilities.StringUtils;
 import io.github.mayhewsw.*;
 import io.github.mayhewsw.Dictionary;
+import io.github.mayhewsw.utils.CorpusService;
+import io.github.mayhewsw.utils.CorpusStats;
+import io.github.mayhewsw.utils.DocumentStore;
 import io.github.mayhewsw.utils.HtmlGenerator;
 import io.github.mayhewsw.utils.IO;
+import io.github.mayhewsw.utils.SpanIndex;
+import io.github.mayhewsw.utils.TokenIndex;
 import io.github.mayhewsw.utils.Utils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
@@ -34,6 +39,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.*;
 import java.nio.file.Paths;
@@ -76,15 +82,16 @@ public class DocumentController {
      * Given a foldername (first field in folders.txt), this will get the path to that folder (second field
      * in folders.txt) and will read all textannotations from that folder.
      *
-     * This returns a TreeMap from integer id to TextAnnotation. These ids are assigned only here -- they do
-     * not correspond to the internal TextAnnotation id.
+     * The original documents are shared between all users (see {@link CorpusService}). This returns a
+     * DocumentSet over those, with this user's annotated documents in place of the originals. Documents are
+     * only read when they are first viewed.
      *
      * @param folder folder identifier
      * @param datasets
      * @return
      * @throws IOException
      */
-    public TreeMap<String, TextAnnotation> loadFolder(String dataname, String username, HashMap<String, ConfigFile> datasets) throws Exception {
+    public DocumentSet loadFolder(String dataname, String username, HashMap<String, ConfigFile> datasets) throws Exception {
 
         ConfigFile props = datasets.get(dataname);
         String folderurl = props.getFolderpath();
@@ -95,102 +102,26 @@ public class DocumentController {
             props.setProperty("format", "tajson");
         }
 
-        // This will be ordered by its keys.
-        TreeMap<String, TextAnnotation> ret = new TreeMap<>(new KeyComparator());
-        TextStatisticsController.resetstats();
-
-        IO.read(foldertype, folderurl, ret);
+        // This will be ordered by its keys. Nothing is read from disk yet.
+        DocumentStore shared = CorpusService.getDocuments(foldertype, folderurl);
 
-        for(TextAnnotation ta : ret.values()){
-            TextStatisticsController.updateCounts(ta.getTokens());
-
-            if(!ta.hasView(ViewNames.NER_CONLL)){
-                View ner = new View(ViewNames.NER_CONLL, "", ta, 1.0);
-                ta.addView(ViewNames.NER_CONLL, ner);
-            }
-        }
+        // corpus statistics need every document, so gather them in the background, once for all sessions.
+        CorpusStats.buildOnce(CorpusStats.key(folderurl), shared);
 
         // now check the annotation folder to see what this user has already annotated.
-        // if there is anything, load it here.
+        // if there is anything, it is read when it is viewed.
         String outfolder = folderurl.replaceAll("/$", "") + "-annotation-" + username + "/";
 
         logger.info("Now looking in user annotation folder: " + outfolder);
 
+        DocumentStore annotated = null;
         if ((new File(outfolder)).exists()) {
-            IO.read(foldertype, outfolder, ret);
+            annotated = new DocumentStore(foldertype, outfolder);
         }
 
-        return ret;
-    }
-
-    /**
-     * Update all the patterns. This is expensive... probably best to not use this.
-     * @param sd
-     */
-    public void updateallpatterns(SessionData sd){
-        // update all patterns all the time.
-        logger.info("Updating all patterns...");
-        sd.patterns.clear();
-
-        // this maps label -> {prevword: count, prevword: count, ...}
-        HashMap<String, HashMap<String, Double>> labelcounts = new HashMap<>();
-
-        // Initialize
-        for(String label : labels){
-            labelcounts.put(label, new HashMap<>());
-        }
+        DocumentSet ret = new DocumentSet(shared, annotated);
 
-        HashMap<Pair<String, String>, Double> counts = new HashMap<>();
-        HashMap<String, Integer> featcounts = new HashMap<>();
-
-        // loop over all TAs.
-        for(String newtaid : sd.tas.keySet()) {
-            TextAnnotation ta = sd.tas.get(newtaid);
-
-            // Extract features from this TA. This adds a new view called "feats"
-            FeatureExtractor.extract(ta);
-
-            View feats = ta.getView("feats");
-            View ner = ta.getView(ViewNames.NER_CONLL);
-            for(Constituent f : feats.getConstituents()){
-                // All features have exactly the same span as the NER constituent. This may be inefficient.
-                List<Constituent> nercs = ner.getConstituentsCoveringSpan(f.getStartSpan(), f.getEndSpan());
-
-                // assume that is length 1
-                // (should be by definition?)
-                if(nercs.size() > 0) {
-                    String label = nercs.get(0).getLabel();
-
-                    // increment the count for this (feature, label) combination.
-                    counts.merge(new Pair<>(f.getLabel(), label), 1., (oldValue, one) -> oldValue + one);
-                    // increment the count for this feature
-                    featcounts.merge(f.getLabel(), 1, (oldValue, one) -> oldValue + one);
-                }
-            }
-        }
-
-        int k = labels.size();
-        // these values come directly from collins and singer paper.
-        double alpha = 0.1;
-        double threshold = 0.95;
-        double fullstringthreshold = 0.8;
-
-        for(Pair<String, String> fp : counts.keySet()){
-            String feat = fp.getFirst();
-            int featoccurrences = featcounts.get(feat);
-
-            double newvalue = (counts.get(fp) + alpha) / (featoccurrences + k*alpha);
-
-            // this allows that full-strings need only appear 2 or 3 times.
-            if(feat.startsWith("full-string") && newvalue > fullstringthreshold){
-                sd.patterns.put(fp, newvalue);
-            }
-            else if(newvalue > threshold){
-                sd.patterns.put(fp, newvalue);
-            }
-        }
-
-        logger.info("Done updating patterns.");
+        return ret;
     }
 
     /**
@@ -266,13 +197,12 @@ public class DocumentController {
 
 //        suffixes.sort((String s1, String s2)-> s2.length()-s1.length());
 
-        HashMap<Pair<String, String>, Integer> patterns = new HashMap<>();
-
         String errormsg = null;
-        TreeMap<String, TextAnnotation> tas;
+        DocumentSet tas = null;
         try{
             tas = loadFolder(dataname, username, sd.datasets);
             hs.setAttribute("tas", tas);
+            hs.setAttribute("statskey", CorpusStats.key(folderpath));
         }catch(Exception e){
             e.printStackTrace();
             errormsg = e.getMessage();
@@ -300,15 +230,19 @@ public class DocumentController {
 
         hs.setAttribute("dataname", dataname);
         hs.setAttribute("prop", prop);
-        hs.setAttribute("patterns", patterns);
+
+        // patterns are counted over every document in the background, then kept up to date as spans change.
+        PatternStats patternstats = new PatternStats(labels);
+        DocumentSet alltas = tas;
+        DocumentStore.submitPass(() -> patternstats.addAll(alltas));
+        hs.setAttribute("patternstats", patternstats);
+        hs.setAttribute("patterns", patternstats.getPatterns());
 
 //        hs.setAttribute("suffixes", suffixes);
 
         sd = new SessionData(hs);
 
-        // not sure there is any point to this??
-        //updateallpatterns(sd);
-        buildmemoryindex(sd);
+        // the search index is built on the first search, because it needs every document.
 
         return "redirect:/document/annotation/";
     }
@@ -353,10 +287,11 @@ public class DocumentController {
             logger.info("Writing out to: " + outpath);
             logger.info("id is: " + taid);
 
-            TreeMap<String, TextAnnotation> tas = sd.tas;
+            DocumentSet tas = sd.tas;
             TextAnnotation taToSave = tas.get(taid);
 
-            IO.save(foldertype, outpath, taToSave);
+            // save under the key it was loaded with, so it replaces the original in the document list.
+            IO.save(foldertype, outpath, taid, taToSave);
 
             //String config = sd.prop.getProperty("nerconfig");
             //Sandbox.TrainAndAnnotate(config, outpath, tas);
@@ -369,8 +304,7 @@ public class DocumentController {
         // only do this if the property is not null!
         if(indexDir != null) {
 
-            IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(indexDir)));
-            IndexSearcher searcher = new IndexSearcher(reader);
+            IndexSearcher searcher = CorpusService.getSearcher(indexDir);
 
             HashMap<String, Double> docstosee = new HashMap<>();
 
@@ -445,8 +379,6 @@ public class DocumentController {
                     .sorted(Map.Entry.<String, Double>comparingByValue().reversed()).limit(5)
                     .forEachOrdered(x -> result.put(x.getKey(), x.getValue()));
             System.out.println(result);
-
-            reader.close();
         }
 
         return result;
@@ -474,6 +406,7 @@ public class DocumentController {
         hs.removeAttribute("tas");
         hs.removeAttribute("dict");
         hs.removeAttribute("suffixes");
+        hs.removeAttribute("stemmer");
         hs.removeAttribute("prop");
 
         //hs.setMaxInactiveInterval(10);
@@ -501,9 +434,12 @@ public class DocumentController {
 //    }
 
     @RequestMapping(value="/search", method=RequestMethod.GET)
-    public String search(@RequestParam(value="query", required=true) String query, HttpSession hs, Model model) throws IOException, ParseException {
+    public String search(@RequestParam(value="query", required=true) String query, HttpSession hs, Model model) throws Exception {
         SessionData sd = new SessionData(hs);
-        TreeMap<String, TextAnnotation> tas = sd.tas;
+
+        if(!DirectoryReader.indexExists(sd.ramDirectory)){
+            buildmemoryindex(sd);
+        }
 
         List<String> annotatedfiles = new ArrayList<>();
 
@@ -534,11 +470,11 @@ public class DocumentController {
 
 
     /**
-     * This is done before anything else...
+     * This is done before the first search. Documents are read in parallel, without keeping them in memory.
      * @param sd
      * @throws IOException
      */
-    public void buildmemoryindex(SessionData sd) throws IOException {
+    public void buildmemoryindex(SessionData sd) throws Exception {
 
         // we write to this open file object.
         RAMDirectory rd = sd.ramDirectory;
@@ -547,16 +483,22 @@ public class DocumentController {
 
         IndexWriter writer = new IndexWriter(rd, cfg);
 
-        for(String taid : sd.tas.keySet()){
-            TextAnnotation ta = sd.tas.get(taid);
-
+        Map<String, Exception> errors = sd.tas.readAll(Runtime.getRuntime().availableProcessors(), (taid, ta) -> {
             StringReader sr = new StringReader(ta.getTokenizedText());
 
             Document d = new Document();
             TextField tf = new TextField("body", sr);
             d.add(tf);
-            d.add(new StringField("filename", ta.getId(), Field.Store.YES));
-            writer.addDocument(d);
+            d.add(new StringField("filename", taid, Field.Store.YES));
+            try {
+                writer.addDocument(d);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        for(String taid : errors.keySet()){
+            logger.error("Could not index " + taid + ": " + errors.get(taid).getMessage());
         }
         writer.close();
 
@@ -569,7 +511,6 @@ public class DocumentController {
      * @return
      */
     public TreeMap<String, TextAnnotation> filterTA(String query, SessionData sd) throws IOException, ParseException {
-        TreeMap<String, TextAnnotation> tas = sd.tas;
         TreeMap<String, TextAnnotation> ret = new TreeMap<>(new KeyComparator());
 
         IndexSearcher searcher = new IndexSearcher(DirectoryReader.open(sd.ramDirectory));
@@ -599,8 +540,7 @@ public class DocumentController {
     @RequestMapping(value="/trysomeunianno", method=RequestMethod.GET)
     public String unifiedannotation(@RequestParam(value="taid", required=false) String taid, HttpSession hs, Model model) throws FileNotFoundException {
         SessionData sd = new SessionData(hs);
-        Map.Entry<String, TextAnnotation> entry = sd.tas.firstEntry();
-        TextAnnotation ta = entry.getValue();
+        TextAnnotation ta = sd.tas.get(sd.tas.firstKey());
 
         String html = HtmlGenerator.getHTMLfromTA(ta, sd.dict, sd.showdefs, sd.showroman, sd.allowcopy, sd.showgoogle);
 
@@ -618,7 +558,7 @@ public class DocumentController {
 
         SessionData sd = new SessionData(hs);
 
-        TreeMap<String, TextAnnotation> tas = sd.tas;
+        DocumentSet tas = sd.tas;
         io.github.mayhewsw.Dictionary dict = sd.dict;
 
         // Go to the homepage.
@@ -645,24 +585,30 @@ public class DocumentController {
                 annotatedfiles.addAll(Arrays.asList(f.list()));
             }
 
+            // only documents that have been viewed are in memory, and only those have details on this page.
+            SortedSet<String> loaded = sd.tas.loadedKeySet();
+
             model.addAttribute("tamap", sd.tas);
+            model.addAttribute("loaded", loaded);
             model.addAttribute("annotatedfiles", annotatedfiles);
             List<String> stats = new ArrayList<>();
             stats.add("Numdocs: " + sd.tas.size());
             stats.add("Num annotated: " + annotatedfiles.size());
+            stats.add("Num loaded: " + loaded.size());
 
             HashSet<String> surfaces = new HashSet<>();
             int totalsurfaces = 0;
             int totaltokens = 0;
-            for(TextAnnotation ta : sd.tas.values()){
+            for(String id : loaded){
+                TextAnnotation ta = sd.tas.get(id);
                 totaltokens += ta.getTokens().length;
                 List<String> ret = ta.getView(ViewNames.NER_CONLL).getConstituents().stream().map(c -> c.getTokenizedSurfaceForm()).collect(Collectors.toList());
                 totalsurfaces += ret.size();
                 surfaces.addAll(ret);
             }
-            stats.add("Total tokens: "+ totaltokens);
-            stats.add("Total entity surfaces: "+ totalsurfaces);
-            stats.add("Unique entity surfaces: "+ surfaces.size());
+            stats.add("Total tokens (loaded): "+ totaltokens);
+            stats.add("Total entity surfaces (loaded): "+ totalsurfaces);
+            stats.add("Unique entity surfaces (loaded): "+ surfaces.size());
 
 
             model.addAttribute("stats", stats);
@@ -699,6 +645,9 @@ public class DocumentController {
             model.addAttribute("nextid", -1);
         }
 
+        // the user is likely to click next or previous.
+        tas.readAhead(taid);
+
         model.addAttribute("labels", labels);
 
         HashMap<String, Integer> freqs = new HashMap<>();
@@ -754,7 +703,7 @@ public class DocumentController {
         int endtokint = Integer.parseInt(endtokid);
 
         SessionData sd = new SessionData(hs);
-        TreeMap<String, TextAnnotation> tas = sd.tas;
+        DocumentSet tas = sd.tas;
 
         TextAnnotation ta = tas.get(idstring);
 
@@ -769,13 +718,16 @@ public class DocumentController {
             }
         }
 
-        String text = StringUtils.join(" ", ta.getTokensInSpan(starttokint, endtokint));
+        // from here on, this document is changed.
+        ta = tas.getForEdit(idstring);
+
+        String[] texttokens = ta.getTokensInSpan(starttokint, endtokint);
 
         // spans is either the single span that was entered, or all matching spans.
         List<IntPair> spans = new ArrayList<>();
         boolean propagate = true;
         if(propagate){
-            spans = ta.getSpansMatching(text);
+            spans = TokenIndex.get(ta).getSpansMatching(texttokens);
         }
 
         if(spans.size() == 0 || !propagate){
@@ -783,9 +735,8 @@ public class DocumentController {
             spans.add(new IntPair(starttokint, endtokint));
         }
 
-        View ner = ta.getView(ViewNames.NER_CONLL);
+        SpanIndex ner = new SpanIndex(ta.getView(ViewNames.NER_CONLL));
 
-        
         for(IntPair span : spans) {
             List<Constituent> lc = ner.getConstituentsCoveringSpan(span.getFirst(), span.getSecond());
 
@@ -827,8 +778,7 @@ public class DocumentController {
             }
         }
 
-        // TODO: remove this because it is slow!!!
-        //updateallpatterns(sd);
+        sd.patternstats.update(idstring, ta);
 
         //String out = HtmlGenerator.getHTMLfromTA(ta, sd.showdefs);
         //return out;
@@ -846,7 +796,7 @@ public class DocumentController {
         Pair<Integer, Integer> tokspan = new Pair<>(tokint, tokint+1);
 
         SessionData sd = new SessionData(hs);
-        TreeMap<String, TextAnnotation> tas = sd.tas;
+        DocumentSet tas = sd.tas;
         io.github.mayhewsw.Dictionary dict = sd.dict;
 
         Boolean showdefs = sd.showdefs;
@@ -861,26 +811,31 @@ public class DocumentController {
         List<Constituent> lc = ner.getConstituentsCoveringSpan(tokspan.getFirst(), tokspan.getSecond());
 
         if(lc.size() > 0) {
+            // from here on, this document is changed.
+            ta = tas.getForEdit(idstring);
+            SpanIndex spans = new SpanIndex(ta.getView(ViewNames.NER_CONLL));
+            lc = spans.getConstituentsCoveringSpan(tokspan.getFirst(), tokspan.getSecond());
             Constituent oldc = lc.get(0);
 
             int origstart = oldc.getStartSpan();
             int origend = oldc.getEndSpan();
             String origlabel = oldc.getLabel();
-            ner.removeConstituent(oldc);
+            spans.removeConstituent(oldc);
 
             if(origstart != tokspan.getFirst()){
                 // this means last token is being changed.
                 Constituent newc = new Constituent(origlabel, ViewNames.NER_CONLL, ta, origstart, tokspan.getFirst());
-                ner.addConstituent(newc);
+                spans.addConstituent(newc);
             }else if(origend != tokspan.getSecond()){
                 // this means first token is being changed.
                 Constituent newc = new Constituent(origlabel, ViewNames.NER_CONLL, ta, tokspan.getSecond(), origend);
-                ner.addConstituent(newc);
+                spans.addConstituent(newc);
             }
         }
 
-        // TODO: remove this because it is slow!!!
-        //updateallpatterns(sd);
+        if(lc.size() > 0) {
+            sd.patternstats.update(idstring, ta);
+        }
 
         String out = HtmlGenerator.getHTMLfromTA(ta, sd.dict, sd.showdefs, sd.showroman, sd.allowcopy, sd.showgoogle);
         return out;
@@ -892,9 +847,9 @@ public class DocumentController {
     public String removeall(@RequestParam(value="id") String idstring, HttpSession hs, Model model) throws Exception {
 
         SessionData sd = new SessionData(hs);
-        TreeMap<String, TextAnnotation> tas = sd.tas;
+        DocumentSet tas = sd.tas;
         io.github.mayhewsw.Dictionary dict = sd.dict;
-        TextAnnotation ta = tas.get(idstring);
+        TextAnnotation ta = tas.getForEdit(idstring);
 
         Boolean showdefs = sd.showdefs;
 
@@ -904,6 +859,7 @@ public class DocumentController {
         for(Constituent c : ner.getConstituents()){
             ner.removeConstituent(c);
         }
+        sd.patternstats.update(idstring, ta);
 
         String out = HtmlGenerator.getHTMLfromTA(ta, sd.dict, sd.showdefs, sd.showroman, sd.allowcopy, sd.showgoogle);
         return out;
@@ -914,7 +870,7 @@ public class DocumentController {
     public String toggledefs(@RequestParam(value="idlist[]") String[] idlist, HttpSession hs) {
 
         SessionData sd = new SessionData(hs);
-        TreeMap<String, TextAnnotation> tas = sd.tas;
+        DocumentSet tas = sd.tas;
         TextAnnotation ta = tas.get(idlist[0]);
 
         Boolean showdefs = sd.showdefs;
@@ -930,7 +886,7 @@ public class DocumentController {
     public String toggleroman(@RequestParam(value="idlist[]") String[] idlist, HttpSession hs) {
 
         SessionData sd = new SessionData(hs);
-        TreeMap<String, TextAnnotation> tas = sd.tas;
+        DocumentSet tas = sd.tas;
         TextAnnotation ta = tas.get(idlist[0]);
 
         Boolean showroman = sd.showroman;
@@ -946,7 +902,7 @@ public class DocumentController {
     public String togglegoogle(@RequestParam(value="idlist[]") String[] idlist, HttpSession hs) {
 
         SessionData sd = new SessionData(hs);
-        TreeMap<String, TextAnnotation> tas = sd.tas;
+        DocumentSet tas = sd.tas;
         TextAnnotation ta = tas.get(idlist[0]);
 
         Boolean showgoogle = sd.showgoogle;
@@ -962,7 +918,7 @@ public class DocumentController {
     public String allowcopy(@RequestParam(value="idlist[]") String[] idlist, HttpSession hs) {
 
         SessionData sd = new SessionData(hs);
-        TreeMap<String, TextAnnotation> tas = sd.tas;
+        DocumentSet tas = sd.tas;
         TextAnnotation ta = tas.get(idlist[0]);
 
         Boolean allowcopy = sd.allowcopy;
@@ -989,7 +945,7 @@ public class DocumentController {
         Properties prop = sd.datasets.get(sd.dataname);
         String folderpath = prop.getProperty("folderpath");
 
-        TreeMap<String, TextAnnotation> tas = sd.tas;
+        DocumentSet tas = sd.tas;
         TextAnnotation ta = tas.get(taid);
 
         logger.info(sd.suffixes.toString());
@@ -1033,8 +989,8 @@ public class DocumentController {
         List<Suggestion> suggestions = new ArrayList<>();
 
         List<Suggestion> contextsuggestions = new ArrayList<>();
-        if(sd.patterns != null) {
-            contextsuggestions = FeatureExtractor.findfeatfires(ta, sd.patterns);
+        if(sd.patternstats != null) {
+            contextsuggestions = FeatureExtractor.findfeatfires(ta, sd.patternstats);
             suggestions.addAll(contextsuggestions);
         }
 
@@ -1043,18 +999,17 @@ public class DocumentController {
 
     @RequestMapping(value = "/gethtml", method = RequestMethod.POST)
     @ResponseStatus(value = HttpStatus.OK)
-    @ResponseBody
-    public String gethtml(@RequestParam(value = "sentids[]", required = true) String[] sentids, String query, Model model, HttpSession hs) throws FileNotFoundException {
+    public void gethtml(@RequestParam(value = "sentids[]", required = true) String[] sentids, String query, Model model, HttpSession hs, HttpServletResponse response) throws IOException {
         SessionData sd = new SessionData(hs);
 
-        String ret = "";
+        // write each document straight to the response.
+        response.setContentType("text/plain;charset=UTF-8");
+        Writer out = response.getWriter();
         for(String sentid : sentids){
             TextAnnotation ta = sd.tas.get(sentid);
-            String html = HtmlGenerator.getHTMLfromTA(ta, sd.dict, sd.showdefs, sd.showroman, sd.allowcopy, sd.showgoogle);
-            ret += html + "\n";
+            HtmlGenerator.writeHTMLfromTA(out, ta, new IntPair(-1, -1), ta.getId(), "", sd.dict, sd.showdefs, sd.showroman, sd.allowcopy, sd.showgoogle);
+            out.write("\n");
         }
-
-        return ret;
     }
 
 
@@ -13,8 +13,13 @@ import edu.illinois.cs.cogcomp.core.utilities.SerializationHelper;
 //import edu.illinois.cs.cogcomp.wikirelation.core.CooccuranceMapLinker;
 import io.github.mayhewsw.*;
 import io.github.mayhewsw.Dictionary;
+import io.github.mayhewsw.utils.CorpusStats;
 import io.github.mayhewsw.utils.HtmlGenerator;
+import io.github.mayhewsw.utils.Romanizer;
 import io.github.mayhewsw.utils.SentenceCache;
+import io.github.mayhewsw.utils.SentenceSet;
+import io.github.mayhewsw.utils.SpanIndex;
+import io.github.mayhewsw.utils.SuffixStemmer;
 import io.github.mayhewsw.utils.Utils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -25,6 +30,7 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
 
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.*;
 import java.util.*;
@@ -92,12 +98,12 @@ public class SentenceController {
             annosearch = true;
         }
 
-        HashSet<String> sents = sd.cache.getAllResults(query);
+        SentenceSet sents = sd.cache.getAllResults(query);
         // serch only among annotated sentences.
         HashMap<String, Group> groups = sd.groups;
 
         // combine all values from annosents into one list.
-        HashSet<String> annovalues = new HashSet<>();
+        SentenceSet annovalues = new SentenceSet(sd.cache.getSentenceIds());
         for (Group v : groups.values()) {
             annovalues.addAll(v.getAnno());
         }
@@ -175,10 +181,14 @@ public class SentenceController {
         }
 
 
-        SentenceCache cache = new SentenceCache(folderpath, indexpath);
-
         sd = new SessionData(hs);
 
+        // this is where the user's annotations are saved.
+        String outfolder = folderpath.replaceAll("/$", "") + "-sentanno-" + sd.username + "/";
+
+        SentenceCache cache = new SentenceCache(folderpath, outfolder, indexpath,
+                prop.getCachedocs(SentenceCache.DEFAULT_MAXDOCS), prop.getCachequeries(SentenceCache.DEFAULT_MAXQUERIES));
+
         // load the dictionary, graceful fail if not there.
 
         String dictpath = prop.getProperty("dict");
@@ -204,13 +214,12 @@ public class SentenceController {
             }
         }
         hs.setAttribute("suffixes", suffixes);
+        hs.setAttribute("stemmer", SuffixStemmer.get(suffixes));
 
         sd = new SessionData(hs);
 
         // now check the annotation folder to see what this user has already annotated.
         // if there is anything, load it here.
-        String outfolder = folderpath.replaceAll("/$", "") + "-sentanno-" + sd.username + "/";
-
         logger.info("Now looking in user annotation folder: " + outfolder);
 
         // Contains all TAs, used for updating patterns.
@@ -218,9 +227,12 @@ public class SentenceController {
 
         HashMap<String, Group> groups = new HashMap<>();
 
+        // statistics of this user's annotated documents.
+        String statskey = CorpusStats.key(outfolder);
+        CorpusStats stats = new CorpusStats();
+
         // Load file. Build annosents based on which sentences are annotated.
         if ((new File(outfolder)).exists()) {
-            TextStatisticsController.resetstats();
 
             File tapath = new File(outfolder);
             File[] filelist = tapath.listFiles();
@@ -230,37 +242,42 @@ public class SentenceController {
                 View sents = ta.getView(ViewNames.SENTENCE);
                 talist.add(ta);
 
-                TextStatisticsController.updateCounts(Utils.getRomanTaToks(ta));
+                stats.add(Romanizer.romanize(ta));
 
                 // this will overwrite whatever was previously in the cache.
+                cache.addDocument(ta);
+
                 for (Constituent sent : sents.getConstituents()) {
                     String sentid = getSentId(sent);
 
-                    // this just to cache the sentence.
-                    cache.put(sentid, sent);
                     List<Constituent> nercons = sent.getTextAnnotation().getView(ViewNames.NER_CONLL).getConstituentsCovering(sent);
                     for (Constituent nercon : nercons) {
 
-                        String stemmed = Utils.stem(nercon.getTokenizedSurfaceForm(), sd.suffixes);
+                        String stemmed = sd.stemmer.stem(nercon.getTokenizedSurfaceForm());
 
-                        groups.putIfAbsent(stemmed, new Group());
+                        groups.putIfAbsent(stemmed, new Group(cache.getSentenceIds()));
                         groups.get(stemmed).addAnno(sentid, nercon.getLabel());
                     }
                 }
             }
         }
 
+        CorpusStats.publish(statskey, stats);
+        hs.setAttribute("statskey", statskey);
+
         // Add terms to the session
         HashSet<String> terms = new HashSet<>();
         String[] termarray = prop.getProperty("terms").split(",");
         for (String term : termarray) {
-            groups.putIfAbsent(term, new Group());
+            groups.putIfAbsent(term, new Group(cache.getSentenceIds()));
         }
 
         hs.setAttribute("cache", cache);
 
-        updategroups(cache, groups);
+        GroupIndex groupindex = new GroupIndex(cache.getSentenceIds());
+        updategroups(cache, groups, groupindex);
         hs.setAttribute("groups", groups);
+        hs.setAttribute("groupindex", groupindex);
 
         String labelsproperty = prop.getLabels();
         List<String> labels = new ArrayList<>();
@@ -317,6 +334,7 @@ public class SentenceController {
         hs.removeAttribute("tas");
         hs.removeAttribute("dict");
         hs.removeAttribute("suffixes");
+        hs.removeAttribute("stemmer");
         hs.removeAttribute("prop");
 
         //hs.setMaxInactiveInterval(10);
@@ -332,31 +350,38 @@ public class SentenceController {
     /**
      * Groups must always contain all terms as keys.
      *
-     * @param terms
+     * New group keys get up to k sentences, and every sentence in any group is added to the group of every other
+     * key whose results contain it. This uses index to remember which keys and sentences have been seen, so each
+     * call only does work for what is new since the last one.
+     *
      * @param cache
      * @param groups
+     * @param index
      * @throws IOException
      */
-    public static void updategroups(SentenceCache cache, HashMap<String, Group> groups) throws Exception {
+    public static void updategroups(SentenceCache cache, HashMap<String, Group> groups, GroupIndex index) throws Exception {
         logger.info("Updating groups...");
 
         // all sentence ids that appear in groups.
-        HashSet<String> allgroups = new HashSet<>();
-        for (String term : groups.keySet()) {
-            allgroups.addAll(groups.get(term));
+        SentenceSet allgroups = new SentenceSet(cache.getSentenceIds());
+        for (Group group : groups.values()) {
+            allgroups.addAll(group);
         }
 
-        // actually build groups
+        // actually build groups, for terms that have not been seen yet.
         int k = 5;
+        List<String> newterms = new ArrayList<>();
         for (String term : groups.keySet()) {
-            HashSet<String> currgroup = groups.get(term);
+            if (index.isIndexed(term)) continue;
+            newterms.add(term);
+
+            Group currgroup = groups.get(term);
             if (currgroup.size() < k) {
-                HashSet<String> group = cache.gatherTopK(term, allgroups, k);
+                SentenceSet group = cache.gatherTopK(term, allgroups, k);
                 group.removeAll(currgroup);
 
                 while (group.size() + currgroup.size() > k) {
-                    String r = group.iterator().next();
-                    group.remove(r);
+                    group.removeOrd(group.nextOrd(0));
                 }
 
                 groups.get(term).addAll(group);
@@ -366,22 +391,24 @@ public class SentenceController {
 
         // now resolve groups
         // important to do this after groups is fully built.
-        for (String term : groups.keySet()) {
-            // TODO: consider flipping these and doing an intersection
-            for (String sent : groups.get(term)) {
-                for (String otherterm : groups.keySet()) {
-                    if (term.equals(otherterm)) continue;
 
-                    HashSet<String> fulllist = cache.getAllResults(otherterm);
+        // new terms take every sentence in groups that they contain.
+        for (String term : newterms) {
+            SentenceSet fulllist = cache.getAllResults(term);
+            index.index(term, fulllist);
+            groups.get(term).addAll(SentenceSet.and(fulllist, allgroups));
+        }
 
-                    // if this sentence is also present in the FULL LIST of other term, then add it to the group.
-                    if (fulllist != null && fulllist.contains(sent)) {
-                        groups.get(otherterm).add(sent);
-                    }
-                }
+        // new sentences go to every term that contains them.
+        SentenceSet newsents = index.unresolved(allgroups);
+        for (int sent = newsents.nextOrd(0); sent >= 0; sent = newsents.nextOrd(sent + 1)) {
+            for (String term : index.getTerms(sent)) {
+                groups.get(term).addOrd(sent);
             }
         }
-        logger.info("Done updating groups...");
+        index.setResolved(allgroups);
+
+        logger.info("Done updating groups: {} new terms.", newterms.size());
     }
 
 
@@ -446,6 +473,9 @@ public class SentenceController {
 
                 logger.debug("Found sent with id: " + groupsentid);
 
+                // this document is about to have unsaved edits, so get this session's own copy.
+                sent = sd.cache.getSentenceForEdit(groupsentid);
+
                 // need to find index of tokens into sentence (could be multiple indices).
 
                 TextAnnotation ta = sent.getTextAnnotation();
@@ -474,8 +504,9 @@ public class SentenceController {
         }
 
         // This logic taken almost verbatim from AnnotationController.
+        IdentityHashMap<View, SpanIndex> indices = new IdentityHashMap<>();
         for (Constituent cand : candidates) {
-            View ner = cand.getView();
+            SpanIndex ner = indices.computeIfAbsent(cand.getView(), SpanIndex::new);
             IntPair span = cand.getSpan();
             List<Constituent> lc = ner.getConstituentsCoveringSpan(span.getFirst(), span.getSecond());
 
@@ -530,7 +561,7 @@ public class SentenceController {
         SessionData sd = new SessionData(hs);
 
         HashMap<String, Group> groups = sd.groups;
-        HashSet<String> group = groups.get(groupid);
+        Group group = groups.get(groupid);
         String[] grouparray = group.toArray(new String[group.size()]);
 
         addtext(text, label, grouparray, hs, model);
@@ -560,10 +591,10 @@ public class SentenceController {
             List<Constituent> nerc = ner.getConstituentsCovering(sent);
             for (Constituent name : nerc) {
                 String surf = name.getTokenizedSurfaceForm();
-                String stemmed = Utils.stem(surf, sd.suffixes);
+                String stemmed = sd.stemmer.stem(surf);
 
                 // strategy is to put empty hashset in.
-                sd.groups.putIfAbsent(stemmed, new Group());
+                sd.groups.putIfAbsent(stemmed, new Group(sd.cache.getSentenceIds()));
                 sd.groups.get(stemmed).addAnno(sentid, name.getLabel());
             }
 
@@ -623,6 +654,11 @@ public class SentenceController {
             for(TextAnnotation ta : talist){
                 SerializationHelper.serializeTextAnnotationToFile(ta, outpath + "/" + ta.getId(), true,true);
             }
+
+            // saved documents can be reloaded from outpath, so they no longer need to stay in memory.
+            for(String sentid : annogroup){
+                sd.cache.unpin(sentid);
+            }
             //CoNLLNerReader.TaToConll(talist, outpath);
 
         } else {
@@ -657,23 +693,23 @@ public class SentenceController {
 
         } else {
 
-            // TODO: this is slow. Does it need to be here?
-            updategroups(sd.cache, groups);
+            // this only does work for terms and sentences that are new since the last visit.
+            updategroups(sd.cache, groups, sd.groupindex);
 
             // all sentence ids that appear in groups.
-            HashSet<String> allgroups = new HashSet<>();
-            for (String term : groups.keySet()) {
-                allgroups.addAll(groups.get(term));
+            SentenceSet allgroups = new SentenceSet(sd.cache.getSentenceIds());
+            for (Group group : groups.values()) {
+                allgroups.addAll(group);
             }
             int numsentsingroups = allgroups.size();
 
-            HashMap<String, HashSet<String>> annogroups = new HashMap<>();
-            HashMap<String, HashSet<String>> unannogroups = new HashMap<>();
+            HashMap<String, Group> annogroups = new HashMap<>();
+            HashMap<String, Group> unannogroups = new HashMap<>();
 
             HashMap<String, Integer> unlabeledamount = new HashMap<>();
 
             for (String groupkey : groups.keySet()) {
-                HashSet<String> group = groups.get(groupkey);
+                Group group = groups.get(groupkey);
                 // FIXME: assume that groupid is the literal query string for that group (will change when context is also used).
 
                 int numunlabeled = 0;
@@ -713,13 +749,13 @@ public class SentenceController {
             int labeledtokens = 0;
 
             // combine all values from annosents into one list.
-            HashSet<String> annovalues = new HashSet<>();
+            SentenceSet annovalues = new SentenceSet(sd.cache.getSentenceIds());
             for (Group v : groups.values()) {
                 annovalues.addAll(v.getAnno());
             }
 
             for (String sentid : annovalues) {
-                Constituent sent = sd.cache.get(sentid);
+                Constituent sent = sd.cache.getSentence(sentid);
                 totaltokens += sent.size();
                 View ner = sent.getTextAnnotation().getView(ViewNames.NER_CONLL);
                 List<Constituent> nercons = ner.getConstituentsCovering(sent);
@@ -737,6 +773,8 @@ public class SentenceController {
             model.addAttribute("unannogroups", unannogroups);
             model.addAttribute("unlabeledamount", unlabeledamount);
             model.addAttribute("numsentsingroups", numsentsingroups);
+
+            logger.info("Sentence cache stats: {}", sd.cache.getStats());
         }
 
         model.addAttribute("labels", hs.getAttribute("labels"));
@@ -751,6 +789,7 @@ public class SentenceController {
         SessionData sd = new SessionData(hs);
 
         sd.groups.remove(term);
+        sd.groupindex.remove(term);
 
         return "redirect:/sentence/annotation";
     }
@@ -774,21 +813,27 @@ public class SentenceController {
         List<Constituent> lc = ner.getConstituentsCoveringSpan(tokspan.getFirst(), tokspan.getSecond());
 
         if (lc.size() > 0) {
+            // this document now has unsaved edits, so get this session's own copy.
+            sent = sd.cache.getSentenceForEdit(sentid);
+            ta = sent.getTextAnnotation();
+            SpanIndex spans = new SpanIndex(ta.getView(ViewNames.NER_CONLL));
+            lc = spans.getConstituentsCoveringSpan(tokspan.getFirst(), tokspan.getSecond());
+
             Constituent oldc = lc.get(0);
 
             int origstart = oldc.getStartSpan();
             int origend = oldc.getEndSpan();
             String origlabel = oldc.getLabel();
-            ner.removeConstituent(oldc);
+            spans.removeConstituent(oldc);
 
             if (origstart != tokspan.getFirst()) {
                 // this means last token is being changed.
                 Constituent newc = new Constituent(origlabel, ViewNames.NER_CONLL, ta, origstart, tokspan.getFirst());
-                ner.addConstituent(newc);
+                spans.addConstituent(newc);
             } else if (origend != tokspan.getSecond()) {
                 // this means first token is being changed.
                 Constituent newc = new Constituent(origlabel, ViewNames.NER_CONLL, ta, tokspan.getSecond(), origend);
-                ner.addConstituent(newc);
+                spans.addConstituent(newc);
             }
         }
 
@@ -798,18 +843,24 @@ public class SentenceController {
 
     @RequestMapping(value = "/gethtml", method = RequestMethod.POST)
     @ResponseStatus(value = HttpStatus.OK)
-    @ResponseBody
-    public String gethtml(@RequestParam(value = "sentids[]", required = true) String[] sentids, String query, Model model, HttpSession hs) throws Exception {
-        SessionData sd = new SessionData(hs);
+    public void gethtml(@RequestParam(value = "sentids[]", required = true) String[] sentids, String query, Model model, HttpSession hs, HttpServletResponse response) throws Exception {
+        // write straight to the response.
+        response.setContentType("text/plain;charset=UTF-8");
+        writehtml(response.getWriter(), sentids, query, new SessionData(hs));
+    }
 
-        String ret = "";
+    public String gethtml(String[] sentids, String query, Model model, HttpSession hs) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        writehtml(sb, sentids, query, new SessionData(hs));
+        return sb.toString();
+    }
+
+    private void writehtml(Appendable out, String[] sentids, String query, SessionData sd) throws Exception {
         for(String sentid : sentids){
             Constituent sent = sd.cache.getSentence(sentid);
-            String html = HtmlGenerator.getHTMLfromTA(sent.getTextAnnotation(), sent.getSpan(), getSentId(sent), query, sd.dict, sd.showdefs, sd.showroman, false, sd.showgoogle);
-            ret += html + "\n<br />";
+            HtmlGenerator.writeHTMLfromTA(out, sent.getTextAnnotation(), sent.getSpan(), getSentId(sent), query, sd.dict, sd.showdefs, sd.showroman, false, sd.showgoogle);
+            out.append("\n<br />");
         }
-
-        return ret;
     }
 
     @RequestMapping(value = "/getsuggestions", method = RequestMethod.POST)
@@ -887,7 +938,7 @@ public class SentenceController {
         HashMap<String, Group> groups = sd.groups;
 
         for(String groupid : groups.keySet()) {
-            HashSet<String> group = groups.get(groupid);
+            Group group = groups.get(groupid);
             String[] grouparray = group.toArray(new String[group.size()]);
 
             addtext(groupid, groups.get(groupid).maxType(), grouparray, hs, model);
@@ -1,8 +1,9 @@
 package io.github.mayhewsw.controllers;
 
-import edu.illinois.cs.cogcomp.core.datastructures.Pair;
 import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
 import io.github.mayhewsw.SessionData;
+import io.github.mayhewsw.utils.CorpusStats;
+import io.github.mayhewsw.utils.RenderCache;
 import io.github.mayhewsw.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,7 +13,6 @@ import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpSession;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Created by mayhew2 on 2/3/17.
@@ -23,75 +23,96 @@ import java.util.stream.Collectors;
 public class TextStatisticsController {
 
     private static Logger logger = LoggerFactory.getLogger(TextStatisticsController.class);
-    private static HashMap<String, Integer> counts = new HashMap<>();
-    private static int numdocs = 0;
-    private static HashMap<String, Integer> term2numdocs = new HashMap<>();
 
+    /**
+     * The words of a document with the highest tf-idf, as an HTML table. These are computed once per document
+     * (see {@link CorpusStats#getTopTerms}), so this only formats TOPK rows.
+     */
     @RequestMapping(value="gettopstats", method=RequestMethod.POST)
     @ResponseBody
     public String gettopstats(@RequestParam(value="docid") String docid, HttpSession hs, Model model) {
 
         SessionData sd = new SessionData(hs);
+        CorpusStats stats = CorpusStats.get(sd.statskey);
 
         TextAnnotation ta = sd.tas.get(docid);
+        CorpusStats.TopTerms top = stats.getTopTerms(docid, ta);
 
-        // need to keep track of the number of times this word appears in the document.
-        HashMap<String, Integer> doccounts = new HashMap<>();
-        String[] romantext = Utils.getRomanTaToks(ta);
-        HashMap<String, String> orig2roman = new HashMap<>();
-
-        for(int i = 0; i < ta.size(); i++){
-            String word = ta.getToken(i);
-            int c = doccounts.getOrDefault(word, 0);
-            doccounts.put(word, c+1);
-            orig2roman.put(word, romantext[i]);
-        }
-
-        String ret = "<small><table class=\"table table-sm table-hover\"><thead><tr>";
-        ret += "<th scope=\"col\">Word</th>";
-        ret += "<th scope=\"col\">Cnt</th>";
-        ret += "<th scope=\"col\">%docs</th>";
-        ret += "<th scope=\"col\">Tfidf</th>";
-        ret += "</tr></thead><tbody>";
+        StringBuilder ret = new StringBuilder();
+        ret.append("<small><table class=\"table table-sm table-hover\"><thead><tr>");
+        ret.append("<th scope=\"col\">Word</th>");
+        ret.append("<th scope=\"col\">Cnt</th>");
+        ret.append("<th scope=\"col\">%docs</th>");
+        ret.append("<th scope=\"col\">Tfidf</th>");
+        ret.append("</tr></thead><tbody>");
 
-        HashSet<Pair<String, Double>> toptfidf = new HashSet();
-
-        for (String word : ta.getTokens()){
-            toptfidf.add(new Pair<>(word, tfidf(word, doccounts.get(word))));
-        }
-
-        int k = 10;
-        List<Pair<String, Double>> toptfidflist = toptfidf.stream()
-                .sorted((a,b) -> b.getSecond().compareTo(a.getSecond()))
-                .limit(k)
-                .collect(Collectors.toList());
-
-        for(Pair<String, Double> p : toptfidflist){
-            String word = p.getFirst();
-            Double tfidf = p.getSecond();
+        for(int i = 0; i < top.size(); i++){
+            String word = top.terms[i];
 
             String def = word;
-            if (sd.showroman && orig2roman.containsKey(word)){
-                def = orig2roman.get(word);
+            if (sd.showroman){
+                def = Utils.getRomanTok(ta, top.positions[i]);
             } else if (sd.showdefs && sd.dict != null && sd.dict.containsKey(word)) {
                 def = "<i>" + sd.dict.get(word).get(0) + "</i>";
             }
 
-            String row = "<tr>";
-            row += "<td>"+def+"</td>";
-            row += "<td>"+counts.getOrDefault(word, 0)+"</td>";
-            row += String.format("<td>%.2f</td>",term2numdocs.getOrDefault(word, 0)/(float)numdocs);
-            row += String.format("<td>%.2f</td>", tfidf);
-            row += "</tr>";
-            ret += row;
+            ret.append("<tr>");
+            ret.append("<td>").append(def).append("</td>");
+            ret.append("<td>").append(stats.getCount(word)).append("</td>");
+            ret.append(String.format("<td>%.2f</td>", docfrac(stats, word)));
+            ret.append(String.format("<td>%.2f</td>", top.scores[i]));
+            ret.append("</tr>");
         }
 
+        ret.append("</tbody></table></small>");
 
-        ret += "</tbody></table></small>";
+        return ret.toString();
+    }
+
+    /**
+     * The same as gettopstats, as JSON.
+     * @return a list of rows with word, count, docfrac and tfidf, best first.
+     */
+    @RequestMapping(value="topterms", method=RequestMethod.GET)
+    @ResponseBody
+    public List<Map<String, Object>> topterms(@RequestParam(value="docid") String docid, HttpSession hs) {
+
+        SessionData sd = new SessionData(hs);
+        CorpusStats stats = CorpusStats.get(sd.statskey);
+
+        TextAnnotation ta = sd.tas.get(docid);
+        if(ta == null){
+            return new ArrayList<>();
+        }
+        CorpusStats.TopTerms top = stats.getTopTerms(docid, ta);
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for(int i = 0; i < top.size(); i++){
+            String word = top.terms[i];
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("word", word);
+            row.put("count", stats.getCount(word));
+            row.put("docfrac", docfrac(stats, word));
+            row.put("tfidf", top.scores[i]);
+            rows.add(row);
+        }
+        return rows;
+    }
 
-        return ret;
+    private static double docfrac(CorpusStats stats, String word){
+        long numdocs = stats.getNumDocs();
+        return numdocs == 0 ? 0 : stats.getDocFreq(word) / (double) numdocs;
     }
 
+    /**
+     * How well the rendered HTML cache is doing.
+     * @return hits, misses, evictions, hit rate and size, as JSON.
+     */
+    @RequestMapping(value="cache", method=RequestMethod.GET)
+    @ResponseBody
+    public Map<String, Object> cache() {
+        return RenderCache.stats();
+    }
 
     /**
      * This is meant to be a method that gets stats for individual words (e.g. if they are out of the top 10 words that are displayed
@@ -140,41 +161,6 @@ public class TextStatisticsController {
 //        return ret;
 //    }
 
-    public static void resetstats() {
-        counts = new HashMap<>();
-        numdocs = 0;
-        term2numdocs = new HashMap<>();
-    }
-
-    /**
-     * Assume that the text is tokenized with spaces. Assume this is
-     * called once per document!
-     * @param words
-     */
-    public static void updateCounts(String[] words){
-        HashSet<String> uniqwords = new HashSet<>();
-        for (String word : words){
-            int c  = counts.getOrDefault(word, 0);
-            counts.put(word, c +1);
-            uniqwords.add(word);
-        }
-
-        for(String word : uniqwords) {
-            int doccounts = term2numdocs.getOrDefault(word, 0);
-            term2numdocs.put(word, doccounts + 1);
-        }
-
-        numdocs++;
-    }
-
-    public static double tfidf(String w, int doccounts){
-        if(term2numdocs.containsKey(w)) {
-            return doccounts * Math.log(numdocs / term2numdocs.get(w));
-        }else{
-            return 0;
-        }
-    }
-
     // This came from loadData in document controller. Assumes a word frequency file that
     // has word freq on each line. Worth doing??
     //        String wordfreqsfile = prop.getProperty("wordfreqsfile");
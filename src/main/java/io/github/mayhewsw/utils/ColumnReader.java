@@ -1,19 +1,19 @@
 package io.github.mayhewsw.utils;
 
 import edu.illinois.cs.cogcomp.annotation.BasicTextAnnotationBuilder;
-import edu.illinois.cs.cogcomp.core.datastructures.IntPair;
 import edu.illinois.cs.cogcomp.core.datastructures.ViewNames;
 import edu.illinois.cs.cogcomp.core.datastructures.textannotation.*;
 import edu.illinois.cs.cogcomp.core.io.IOUtils;
-import edu.illinois.cs.cogcomp.core.io.LineIO;
 import edu.illinois.cs.cogcomp.nlp.corpusreaders.AnnotationReader;
 import edu.illinois.cs.cogcomp.nlp.corpusreaders.CorpusReaderConfigurator;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileNotFoundException;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -67,8 +67,8 @@ public class ColumnReader extends AnnotationReader<TextAnnotation> {
         for (TextAnnotation ta : tas) {
             List<String> talines = new ArrayList<>();
 
-            View sentview = ta.getView(ViewNames.SENTENCE);
-            View nerview = ta.getView(ViewNames.NER_CONLL);
+            SpanIndex sentview = new SpanIndex(ta.getView(ViewNames.SENTENCE));
+            SpanIndex nerview = new SpanIndex(ta.getView(ViewNames.NER_CONLL));
             for (int i = 0; i < ta.getTokens().length; i++) {
 
                 // Default "outside" label in NER_CONLL
@@ -113,86 +113,122 @@ public class ColumnReader extends AnnotationReader<TextAnnotation> {
     }
 
     /**
-     * This loads filename into a textannotation.
+     * This loads filename into a textannotation. The file is read one line at a time, and each line is only
+     * scanned for its first and last fields (the word and the tag), so no per-line arrays are created.
      *
      * @param filename
      * @return
-     * @throws FileNotFoundException
+     * @throws IOException
      */
-    public static TextAnnotation loadColumnfile(String filename) throws FileNotFoundException {
+    public static TextAnnotation loadColumnfile(String filename) throws IOException {
         logger.info("Reading: " + filename);
-        List<String> lines = LineIO.read(filename);
 
-        List<IntPair> spans = new ArrayList<>();
+        List<String> words = new ArrayList<>();
+
+        // entity spans: spanstarts[k] to spanends[k] has label labels.get(k).
+        int[] spanstarts = new int[16];
+        int[] spanends = new int[16];
         List<String> labels = new ArrayList<>();
-        List<Integer> sentenceEndPositions = new ArrayList<>();
 
-        StringBuilder text = new StringBuilder();
+        // these are increasing, so duplicates can only be at the end.
+        int[] sentenceEndPositions = new int[16];
+        int numsents = 0;
 
         int start = -1;
         String label = "";
 
         int i = 0;
-        for (String line : lines) {
-            String[] sline = line.split(" ");
-            String word = sline[0];
-            String tag = sline[sline.length-1];
-
-            if (tag.startsWith("B-") || tag.startsWith("U-")) {
-                // two consecutive entities.
-                if (start > -1) {
-                    // peel off a constituent if it exists.
-                    spans.add(new IntPair(start, i));
-                    labels.add(label);
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(filename), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                // ignore trailing spaces, like split(" ") does.
+                int end = line.length();
+                while (end > 0 && line.charAt(end - 1) == ' ') {
+                    end--;
                 }
 
-                start = i;
-                label = tag.split("-")[1];
-
-            } else if (tag.startsWith("I-")) {
-                // don't do anything....
-            } else {
-                // this is a sentence boundary.
-                if (line.trim().length() == 0) {
-                    // perhaps this is i+1?
-                    // in case there are multiple empty lines at the end.
-                    if (!sentenceEndPositions.contains(i) && i > 0) {
-                        sentenceEndPositions.add(i);
+                int firstspace = line.indexOf(' ');
+                String word = line.substring(0, firstspace < 0 || firstspace > end ? end : firstspace);
+                int lastspace = line.lastIndexOf(' ', end - 1);
+                int tagstart = lastspace < 0 ? 0 : lastspace + 1;
+
+                if (line.startsWith("B-", tagstart) || line.startsWith("U-", tagstart)) {
+                    // two consecutive entities.
+                    if (start > -1) {
+                        // peel off a constituent if it exists.
+                        if (labels.size() == spanstarts.length) {
+                            spanstarts = Arrays.copyOf(spanstarts, spanstarts.length * 2);
+                            spanends = Arrays.copyOf(spanends, spanends.length * 2);
+                        }
+                        spanstarts[labels.size()] = start;
+                        spanends[labels.size()] = i;
+                        labels.add(label);
                     }
-                }
 
-                // it's O or it's empty
-                if (start > -1) {
-                    // peel off a constituent if it exists.
-                    spans.add(new IntPair(start, i));
-                    labels.add(label);
-                }
+                    start = i;
+                    int labelend = line.indexOf('-', tagstart + 2);
+                    label = line.substring(tagstart + 2, labelend < 0 || labelend > end ? end : labelend);
+
+                } else if (line.startsWith("I-", tagstart)) {
+                    // don't do anything....
+                } else {
+                    // this is a sentence boundary.
+                    if (line.trim().length() == 0) {
+                        // in case there are multiple empty lines at the end.
+                        if (i > 0 && (numsents == 0 || sentenceEndPositions[numsents - 1] != i)) {
+                            if (numsents == sentenceEndPositions.length) {
+                                sentenceEndPositions = Arrays.copyOf(sentenceEndPositions, numsents * 2);
+                            }
+                            sentenceEndPositions[numsents++] = i;
+                        }
+                    }
 
-                label = "";
-                start = -1;
-            }
+                    // it's O or it's empty
+                    if (start > -1) {
+                        // peel off a constituent if it exists.
+                        if (labels.size() == spanstarts.length) {
+                            spanstarts = Arrays.copyOf(spanstarts, spanstarts.length * 2);
+                            spanends = Arrays.copyOf(spanends, spanends.length * 2);
+                        }
+                        spanstarts[labels.size()] = start;
+                        spanends[labels.size()] = i;
+                        labels.add(label);
+                    }
+
+                    label = "";
+                    start = -1;
+                }
 
-            // add the word form to the sentence.
-            if (sline.length > 0 && !word.equals("-DOCSTART-") && word.trim().length() > 0) {
-                text.append(word + " ");
-                i++;
+                // add the word form to the sentence.
+                if (!word.equals("-DOCSTART-") && word.trim().length() > 0) {
+                    words.add(word);
+                    i++;
+                }
             }
         }
 
         // in case the very last line is an NE.
         if (start > -1) {
-            spans.add(new IntPair(start, i));
+            if (labels.size() == spanstarts.length) {
+                spanstarts = Arrays.copyOf(spanstarts, spanstarts.length + 1);
+                spanends = Arrays.copyOf(spanends, spanends.length + 1);
+            }
+            spanstarts[labels.size()] = start;
+            spanends[labels.size()] = i;
             labels.add(label);
         }
 
         // in case there are no empty lines.
-        if (!sentenceEndPositions.contains(i)) {
-            sentenceEndPositions.add(i);
+        if (numsents == 0 || sentenceEndPositions[numsents - 1] != i) {
+            if (numsents == sentenceEndPositions.length) {
+                sentenceEndPositions = Arrays.copyOf(sentenceEndPositions, numsents + 1);
+            }
+            sentenceEndPositions[numsents++] = i;
         }
 
         // we jump through these hoops so we can give the TA an id.
         String filenameonly = IOUtils.getFileName(filename);
-        List<String[]> tokenizedSentences = Collections.singletonList(text.toString().split(" "));
+        List<String[]> tokenizedSentences = Collections.singletonList(words.toArray(new String[words.size()]));
         TextAnnotation ta =
                 BasicTextAnnotationBuilder.createTextAnnotationFromTokens("", filenameonly,
                         tokenizedSentences);
@@ -201,20 +237,17 @@ public class ColumnReader extends AnnotationReader<TextAnnotation> {
         ta.addView(ViewNames.SENTENCE, sentview);
 
         int sentstart = 0;
-        for (int s : sentenceEndPositions) {
-            sentview.addSpanLabel(sentstart, s, ViewNames.SENTENCE, 1d);
-            sentstart = s;
+        for (int k = 0; k < numsents; k++) {
+            sentview.addSpanLabel(sentstart, sentenceEndPositions[k], ViewNames.SENTENCE, 1d);
+            sentstart = sentenceEndPositions[k];
         }
 
         SpanLabelView emptyview = new SpanLabelView(ViewNames.NER_CONLL, "UserSpecified", ta, 1d);
         ta.addView(ViewNames.NER_CONLL, emptyview);
 
         for (int k = 0; k < labels.size(); k++) {
-            label = labels.get(k);
-            IntPair span = spans.get(k);
             Constituent c =
-                    new Constituent(label, ViewNames.NER_CONLL, ta, span.getFirst(),
-                            span.getSecond());
+                    new Constituent(labels.get(k), ViewNames.NER_CONLL, ta, spanstarts[k], spanends[k]);
             emptyview.addConstituent(c);
         }
 
@@ -0,0 +1,186 @@
+package io.github.mayhewsw.utils;
+
+import edu.illinois.cs.cogcomp.core.datastructures.ViewNames;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.SpanLabelView;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.View;
+import edu.illinois.cs.cogcomp.core.utilities.SerializationHelper;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * This holds everything that can be shared between sessions: the original (unannotated) documents of each
+ * dataset, and one IndexSearcher per index. Each of these is loaded the first time any session asks for it, and
+ * is never modified afterwards. If the folder or the index changes on disk, the next session to ask gets a new
+ * one, and sessions that already have the old one keep using it. Sessions layer their own annotations on top of the shared documents
+ * (see {@link io.github.mayhewsw.DocumentSet} and {@link SentenceCache}), copying a document only when they
+ * first edit it.
+ *
+ * Shared documents must never be modified. Use {@link #copy(TextAnnotation)} to get a private copy.
+ */
+public class CorpusService {
+
+    private static Logger logger = LoggerFactory.getLogger(CorpusService.class);
+
+    // maps from foldertype:folder to all documents in that folder.
+    private static final ConcurrentHashMap<String, FutureTask<DocumentStore>> corpora = new ConcurrentHashMap<>();
+
+    // maps from index path to a searcher for that index.
+    private static final ConcurrentHashMap<String, FutureTask<IndexSearcher>> searchers = new ConcurrentHashMap<>();
+
+    // maps from folder to recently used documents from that folder (used in sentence mode).
+    private static final ConcurrentHashMap<String, Map<String, TextAnnotation>> documents = new ConcurrentHashMap<>();
+
+    /**
+     * Get the value for key, loading it if this is the first request. If several threads ask for the
+     * same key at once, only one of them does the loading. If loading fails, the next request will try again.
+     */
+    static <T> T getOrLoad(ConcurrentHashMap<String, FutureTask<T>> map, String key, Callable<T> loader) throws Exception {
+        FutureTask<T> task = map.get(key);
+        if(task == null){
+            FutureTask<T> newtask = new FutureTask<>(loader);
+            task = map.putIfAbsent(key, newtask);
+            if(task == null){
+                task = newtask;
+                task.run();
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            map.remove(key, task);
+            Throwable cause = e.getCause();
+            if(cause instanceof Exception){
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Get all documents in this folder, shared between all sessions. Documents are loaded lazily, the first
+     * time any session asks for them. If files have been added, removed or changed since the folder was
+     * listed, this lists it again (unchanged documents still come from the snapshot, if there is one).
+     * @param foldertype one of the folder types in {@link io.github.mayhewsw.controllers.Common}
+     * @param folder
+     * @return
+     * @throws Exception
+     */
+    public static DocumentStore getDocuments(String foldertype, String folder) throws Exception {
+        String key = foldertype + ":" + new File(folder).getAbsolutePath();
+
+        while(true) {
+            FutureTask<DocumentStore> task = corpora.get(key);
+            DocumentStore store = getOrLoad(corpora, key, () -> new DocumentStore(foldertype, folder, true));
+            if(task == null || store.isUpToDate()){
+                return store;
+            }
+            logger.info("Folder has changed, listing it again: " + folder);
+            corpora.remove(key, task);
+        }
+    }
+
+    /**
+     * Get a single (json) document from this folder, shared between all sessions. The most recently used
+     * maxdocs documents of each folder are kept in memory.
+     * @param folder
+     * @param docid the file name of the document
+     * @param maxdocs
+     * @return
+     * @throws Exception
+     */
+    public static TextAnnotation getDocument(String folder, String docid, int maxdocs) throws Exception {
+        Map<String, TextAnnotation> cache = documents.computeIfAbsent(new File(folder).getAbsolutePath(),
+                k -> Collections.synchronizedMap(new LinkedHashMap<String, TextAnnotation>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, TextAnnotation> eldest) {
+                        return size() > maxdocs;
+                    }
+                }));
+
+        TextAnnotation ta = cache.get(docid);
+        if(ta == null){
+            ta = SerializationHelper.deserializeTextAnnotationFromFile(new File(folder, docid).getAbsolutePath(), true);
+            prepare(ta);
+            cache.put(docid, ta);
+        }
+        return ta;
+    }
+
+    /**
+     * Get a searcher for this index, shared between all sessions. IndexSearcher is thread safe.
+     * @param indexpath
+     * @return
+     * @throws Exception
+     */
+    public static IndexSearcher getSearcher(String indexpath) throws Exception {
+        String key = new File(indexpath).getAbsolutePath();
+
+        IndexSearcher searcher = getOrLoad(searchers, key, () -> {
+            logger.info("Opening shared index: " + indexpath);
+            return new IndexSearcher(DirectoryReader.open(FSDirectory.open(Paths.get(indexpath))));
+        });
+
+        // the index may have been updated in place (see TextFileIndexer), so pick up any new commit. The old
+        // reader is not closed, because sessions that loaded before may still be searching it.
+        synchronized (searchers) {
+            FutureTask<IndexSearcher> current = searchers.get(key);
+            if(current != null && current.isDone()){
+                try {
+                    searcher = current.get();
+                } catch (ExecutionException e) {
+                    return searcher;
+                }
+            }
+            DirectoryReader newer = DirectoryReader.openIfChanged((DirectoryReader) searcher.getIndexReader());
+            if(newer != null){
+                logger.info("Index has changed, reopening: " + indexpath);
+                IndexSearcher reopened = new IndexSearcher(newer);
+                FutureTask<IndexSearcher> task = new FutureTask<>(() -> reopened);
+                task.run();
+                searchers.put(key, task);
+                searcher = reopened;
+            }
+        }
+        return searcher;
+    }
+
+    /**
+     * Add the views that other code expects to find (and would otherwise add on the fly, which is not
+     * allowed on a shared document).
+     * @param ta
+     */
+    public static void prepare(TextAnnotation ta){
+        if(!ta.hasView(ViewNames.NER_CONLL)){
+            View ner = new View(ViewNames.NER_CONLL, "", ta, 1.0);
+            ta.addView(ViewNames.NER_CONLL, ner);
+        }
+        if(!ta.hasView("NER_SUGGESTION")){
+            ta.addView("NER_SUGGESTION", new SpanLabelView("NER_SUGGESTION", ta));
+        }
+    }
+
+    /**
+     * Make a private copy of a shared document, so it can be edited.
+     * @param ta
+     * @return
+     * @throws Exception
+     */
+    public static TextAnnotation copy(TextAnnotation ta) throws Exception {
+        TextAnnotation copy = SerializationHelper.deserializeFromJson(SerializationHelper.serializeToJson(ta));
+        prepare(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,367 @@
+package io.github.mayhewsw.utils;
+
+import edu.illinois.cs.cogcomp.annotation.BasicTextAnnotationBuilder;
+import edu.illinois.cs.cogcomp.core.datastructures.ViewNames;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.Constituent;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.SpanLabelView;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+import io.github.mayhewsw.controllers.Common;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A compact binary copy of a folder of documents, so that it does not have to be parsed again. This holds
+ * the tokens, sentence boundaries and NER spans of each document in flat int arrays, with every string stored
+ * once in a string table. The file is memory mapped, and a document is only decoded when it is read.
+ *
+ * Each document records the modification time and length of its source file. If the source file has changed,
+ * the document in the snapshot is ignored (see {@link #isFresh(File)}).
+ *
+ * Only conll and column folders are supported, because those documents have no other views. Documents in
+ * ta and tajson folders can carry arbitrary views that this format would lose.
+ *
+ * A snapshot may also hold the romanized tokens of each document (see {@link Romanizer#main(String[])}).
+ * These are handed to {@link Romanizer} when a document is read.
+ *
+ * The layout is: header (magic, version, flags, entry count, then name, mtime, length and data offset for each
+ * document), string table (count, then length and UTF-8 bytes for each string), then the documents. Each
+ * document is: corpus id, id, token count, tokens, romanized token count (0 or the token count), romanized
+ * tokens, sentence count, sentence ends, span count, then start, end and label for each NER span. All strings
+ * are indices into the string table.
+ */
+public class CorpusSnapshot {
+
+    private static Logger logger = LoggerFactory.getLogger(CorpusSnapshot.class);
+
+    public static final String SNAPSHOTDIR = "snapshots";
+
+    private static final int MAGIC = 0x54534e50;
+    private static final int VERSION = 2;
+
+    private static final int ROMAN = 1;
+
+    private final MappedByteBuffer buffer;
+    private final String[] strings;
+    private final int datastart;
+    private final boolean roman;
+
+    // maps from file name to {mtime, length, offset}.
+    private final HashMap<String, long[]> entries;
+
+    private CorpusSnapshot(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+
+        ByteBuffer b = buffer.duplicate();
+        if(b.getInt() != MAGIC || b.getInt() != VERSION){
+            throw new IOException("Not a snapshot, or an old version.");
+        }
+        roman = (b.getInt() & ROMAN) != 0;
+
+        int numentries = b.getInt();
+        int[] names = new int[numentries];
+        long[][] values = new long[numentries][];
+        for(int i = 0; i < numentries; i++){
+            names[i] = b.getInt();
+            values[i] = new long[]{b.getLong(), b.getLong(), b.getLong()};
+        }
+
+        int numstrings = b.getInt();
+        strings = new String[numstrings];
+        for(int i = 0; i < numstrings; i++){
+            byte[] bytes = new byte[b.getInt()];
+            b.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        datastart = b.position();
+
+        entries = new HashMap<>();
+        for(int i = 0; i < numentries; i++){
+            entries.put(strings[names[i]], values[i]);
+        }
+    }
+
+    public static boolean supports(String foldertype){
+        return foldertype.equals(Common.FOLDERCONLL) || foldertype.equals(Common.FOLDERCOLUMN);
+    }
+
+    /**
+     * Where the snapshot of this folder lives.
+     * @param foldertype
+     * @param folder
+     * @return
+     */
+    public static File getFile(String foldertype, String folder){
+        String name = new File(folder).getAbsolutePath().replaceAll("[^a-zA-Z0-9.-]", "_");
+        return new File(SNAPSHOTDIR, name + "." + foldertype + ".snap");
+    }
+
+    /**
+     * Map a snapshot file.
+     * @param file
+     * @return the snapshot, or null if there is no usable snapshot in this file.
+     */
+    public static CorpusSnapshot open(File file){
+        if(!file.exists()){
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE){
+                logger.info("Snapshot is too large to map: " + file);
+                return null;
+            }
+            // the mapping stays valid after the channel is closed.
+            CorpusSnapshot snapshot = new CorpusSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            logger.info("Opened snapshot {} with {} documents.", file, snapshot.size());
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Could not open snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public int size(){
+        return entries.size();
+    }
+
+    /**
+     * @return true if this snapshot holds romanized tokens.
+     */
+    public boolean hasRoman(){
+        return roman;
+    }
+
+    /**
+     * @param source the original file of a document
+     * @return true if this snapshot has the current version of the document.
+     */
+    public boolean isFresh(File source){
+        long[] entry = entries.get(source.getName());
+        return entry != null && entry[0] == source.lastModified() && entry[1] == source.length();
+    }
+
+    /**
+     * Decode a document. This is safe to call from several threads.
+     * @param name file name of the document
+     * @return the document, or null if it is not in the snapshot.
+     */
+    public TextAnnotation read(String name){
+        long[] entry = entries.get(name);
+        if(entry == null){
+            return null;
+        }
+
+        ByteBuffer b = buffer.duplicate();
+        b.position(datastart + (int) entry[2]);
+
+        String corpusid = strings[b.getInt()];
+        String id = strings[b.getInt()];
+
+        String[] tokens = new String[b.getInt()];
+        for(int i = 0; i < tokens.length; i++){
+            tokens[i] = strings[b.getInt()];
+        }
+
+        String[] romantokens = null;
+        int numroman = b.getInt();
+        if(numroman > 0){
+            romantokens = new String[numroman];
+            for(int i = 0; i < numroman; i++){
+                romantokens[i] = strings[b.getInt()];
+            }
+        }
+
+        // this mirrors ColumnReader.loadColumnfile.
+        TextAnnotation ta = BasicTextAnnotationBuilder.createTextAnnotationFromTokens(corpusid, id,
+                Collections.singletonList(tokens));
+
+        SpanLabelView sentview = new SpanLabelView(ViewNames.SENTENCE, "UserSpecified", ta, 1d);
+        ta.addView(ViewNames.SENTENCE, sentview);
+        int numsents = b.getInt();
+        int sentstart = 0;
+        for(int i = 0; i < numsents; i++){
+            int end = b.getInt();
+            sentview.addSpanLabel(sentstart, end, ViewNames.SENTENCE, 1d);
+            sentstart = end;
+        }
+
+        SpanLabelView nerview = new SpanLabelView(ViewNames.NER_CONLL, "UserSpecified", ta, 1d);
+        ta.addView(ViewNames.NER_CONLL, nerview);
+        int numspans = b.getInt();
+        for(int i = 0; i < numspans; i++){
+            int start = b.getInt();
+            int end = b.getInt();
+            String label = strings[b.getInt()];
+            nerview.addConstituent(new Constituent(label, ViewNames.NER_CONLL, ta, start, end));
+        }
+
+        if(romantokens != null){
+            Romanizer.put(ta, romantokens);
+        }
+
+        return ta;
+    }
+
+    /**
+     * Writes a snapshot one document at a time, so the whole folder never has to be in memory. Nothing
+     * replaces the target file until {@link #finish()}.
+     */
+    public static class Writer {
+
+        private final File target;
+        private final boolean roman;
+        private final File datafile;
+        private final DataOutputStream data;
+
+        private final HashMap<String, Integer> stringids = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private final List<long[]> entries = new ArrayList<>();
+
+        public Writer(File target) throws IOException {
+            this(target, false);
+        }
+
+        /**
+         * @param target
+         * @param roman whether to store the romanized tokens of each document
+         * @throws IOException
+         */
+        public Writer(File target, boolean roman) throws IOException {
+            this.target = target;
+            this.roman = roman;
+            File dir = target.getAbsoluteFile().getParentFile();
+            dir.mkdirs();
+            this.datafile = File.createTempFile(target.getName(), ".data", dir);
+            this.data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(datafile)));
+        }
+
+        private int intern(String s){
+            if(s == null){
+                s = "";
+            }
+            Integer id = stringids.get(s);
+            if(id == null){
+                id = strings.size();
+                stringids.put(s, id);
+                strings.add(s);
+            }
+            return id;
+        }
+
+        /**
+         * Add a document.
+         * @param source the file the document was read from
+         * @param ta the document, as read from source
+         * @throws IOException
+         */
+        public void add(File source, TextAnnotation ta) throws IOException {
+            names.add(source.getName());
+            entries.add(new long[]{source.lastModified(), source.length(), data.size()});
+
+            data.writeInt(intern(ta.getCorpusId()));
+            data.writeInt(intern(ta.getId()));
+
+            String[] tokens = ta.getTokens();
+            data.writeInt(tokens.length);
+            for(String token : tokens){
+                data.writeInt(intern(token));
+            }
+
+            String[] romantokens = roman ? Romanizer.romanize(ta) : null;
+            if(romantokens != null && romantokens.length == tokens.length){
+                data.writeInt(romantokens.length);
+                for(String token : romantokens){
+                    data.writeInt(intern(token));
+                }
+            }else{
+                data.writeInt(0);
+            }
+
+            List<Constituent> sents = ta.hasView(ViewNames.SENTENCE) ?
+                    ta.getView(ViewNames.SENTENCE).getConstituents() : Collections.emptyList();
+            if(sents.isEmpty()){
+                data.writeInt(1);
+                data.writeInt(tokens.length);
+            }else {
+                data.writeInt(sents.size());
+                for (Constituent sent : sents) {
+                    data.writeInt(sent.getEndSpan());
+                }
+            }
+
+            List<Constituent> spans = ta.hasView(ViewNames.NER_CONLL) ?
+                    ta.getView(ViewNames.NER_CONLL).getConstituents() : Collections.emptyList();
+            data.writeInt(spans.size());
+            for(Constituent c : spans){
+                data.writeInt(c.getStartSpan());
+                data.writeInt(c.getEndSpan());
+                data.writeInt(intern(c.getLabel()));
+            }
+        }
+
+        /**
+         * Write the header and string table, and replace the target file.
+         * @throws IOException
+         */
+        public void finish() throws IOException {
+            data.close();
+            for(String name : names){
+                intern(name);
+            }
+
+            File tmp = File.createTempFile(target.getName(), ".tmp", datafile.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(roman ? ROMAN : 0);
+
+                out.writeInt(names.size());
+                for (int i = 0; i < names.size(); i++) {
+                    out.writeInt(stringids.get(names.get(i)));
+                    for (long v : entries.get(i)) {
+                        out.writeLong(v);
+                    }
+                }
+
+                out.writeInt(strings.size());
+                for (String s : strings) {
+                    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+
+                Files.copy(datafile.toPath(), out);
+            } finally {
+                datafile.delete();
+            }
+
+            try {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            logger.info("Wrote snapshot {} with {} documents.", target, names.size());
+        }
+
+        /**
+         * Give up, and remove temporary files.
+         */
+        public void abort() {
+            try {
+                data.close();
+            } catch (IOException e) {
+                // nothing to do.
+            }
+            datafile.delete();
+        }
+    }
+}
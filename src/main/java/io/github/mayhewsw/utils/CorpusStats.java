@@ -0,0 +1,343 @@
+package io.github.mayhewsw.utils;
+
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Word statistics of a corpus: how often each word occurs, and in how many documents. These are built once per
+ * corpus and shared by every session that uses it.
+ *
+ * A CorpusStats is filled by {@link #add(String, String[])}, which may be called from several threads at once,
+ * and then published with {@link #publish(String, CorpusStats)}. After that it is only read. Rebuilding makes a
+ * new CorpusStats and publishes it in place of the old one, so readers see either the old statistics or the new,
+ * never a mix.
+ *
+ * While it is filled, each document's term counts are kept as arrays of term ids. Publishing turns these into
+ * the top TOPK terms of each document by tf-idf (see {@link #getTopTerms}), and then drops them. Since tokens
+ * never change, the top terms of a document only change when the corpus does.
+ */
+public class CorpusStats {
+
+    private static Logger logger = LoggerFactory.getLogger(CorpusStats.class);
+
+    public static final CorpusStats EMPTY = new CorpusStats();
+
+    // maps from corpus key to its current statistics.
+    private static final ConcurrentHashMap<String, CorpusStats> published = new ConcurrentHashMap<>();
+    // maps from corpus key to the store its statistics have been built from, or are being built from.
+    private static final ConcurrentHashMap<String, DocumentStore> started = new ConcurrentHashMap<>();
+
+    public static final int TOPK = 10;
+
+    private final ConcurrentHashMap<String, LongAdder> counts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> docfreqs = new ConcurrentHashMap<>();
+    private final LongAdder numdocs = new LongAdder();
+
+    // term ids, only used while the statistics are filled.
+    private final ConcurrentHashMap<String, Integer> termids = new ConcurrentHashMap<>();
+    private final AtomicInteger nextid = new AtomicInteger();
+    // maps from document id to its terms, until the statistics are published.
+    private ConcurrentHashMap<String, DocTerms> docterms = new ConcurrentHashMap<>();
+
+    // maps from document id to its top terms, once the statistics are published.
+    private final ConcurrentHashMap<String, TopTerms> topterms = new ConcurrentHashMap<>();
+    private volatile boolean finished;
+
+    /**
+     * The distinct terms of a document: term ids, the count of each, and the position of its last occurrence.
+     */
+    private static class DocTerms {
+        final int[] ids;
+        final int[] tfs;
+        final int[] positions;
+
+        DocTerms(int[] ids, int[] tfs, int[] positions){
+            this.ids = ids;
+            this.tfs = tfs;
+            this.positions = positions;
+        }
+    }
+
+    /**
+     * The terms of a document with the highest tf-idf, best first, with the position of the last occurrence of
+     * each (for looking up its romanization).
+     */
+    public static class TopTerms {
+        public final String[] terms;
+        public final int[] positions;
+        public final double[] scores;
+
+        TopTerms(String[] terms, int[] positions, double[] scores){
+            this.terms = terms;
+            this.positions = positions;
+            this.scores = scores;
+        }
+
+        public int size(){
+            return terms.length;
+        }
+    }
+
+    /**
+     * The key for a corpus in this folder.
+     * @param folder
+     * @return
+     */
+    public static String key(String folder){
+        return new File(folder).getAbsolutePath();
+    }
+
+    /**
+     * @param key
+     * @return the current statistics of this corpus, or {@link #EMPTY} if there are none yet.
+     */
+    public static CorpusStats get(String key){
+        if(key == null){
+            return EMPTY;
+        }
+        return published.getOrDefault(key, EMPTY);
+    }
+
+    /**
+     * Make these the current statistics of this corpus.
+     * @param key
+     * @param stats
+     */
+    public static void publish(String key, CorpusStats stats){
+        stats.finish();
+        published.put(key, stats);
+    }
+
+    /**
+     * Build the statistics of this corpus in the background, unless that has been done already for this store.
+     * A new store for the same key (because the folder changed, see {@link CorpusService#getDocuments}) is built
+     * again. If the build fails, the next call tries again.
+     * @param key
+     * @param store
+     */
+    public static void buildOnce(String key, DocumentStore store){
+        if(started.put(key, store) != store){
+            DocumentStore.submitPass(() -> {
+                try {
+                    rebuild(key, store);
+                } catch (RuntimeException e) {
+                    started.remove(key, store);
+                    throw e;
+                }
+            });
+        }
+    }
+
+    /**
+     * Build the statistics of this corpus from every document in the store, and publish them when done. This
+     * reads every document, so it is meant to run in the background.
+     * @param key
+     * @param store
+     */
+    public static void rebuild(String key, DocumentStore store){
+        CorpusStats stats = new CorpusStats();
+
+        Map<String, Exception> errors;
+        try {
+            errors = store.readAll(Runtime.getRuntime().availableProcessors(), (id, ta) -> stats.add(id, ta.getTokens()));
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while computing statistics.");
+            started.remove(key, store);
+            return;
+        }
+
+        for(String id : errors.keySet()){
+            logger.error("Could not read " + id + " for statistics: " + errors.get(id).getMessage());
+        }
+
+        publish(key, stats);
+        logger.info("Done computing statistics for {} documents.", stats.getNumDocs());
+    }
+
+    /**
+     * Count the words of one document. Assume this is called once per document!
+     * @param words
+     */
+    public void add(String[] words){
+        add(null, words);
+    }
+
+    /**
+     * Count the words of one document, and keep its terms for {@link #getTopTerms}. Assume this is called once
+     * per document!
+     * @param id the document id, or null if top terms are not needed
+     * @param words
+     */
+    public void add(String id, String[] words){
+        // maps from word to its count and last position in this document.
+        LinkedHashMap<String, int[]> doc = new LinkedHashMap<>();
+        for (int i = 0; i < words.length; i++){
+            String word = words[i];
+            counts.computeIfAbsent(word, k -> new LongAdder()).increment();
+            int[] tfpos = doc.computeIfAbsent(word, k -> new int[2]);
+            tfpos[0]++;
+            tfpos[1] = i;
+        }
+
+        for(String word : doc.keySet()) {
+            docfreqs.computeIfAbsent(word, k -> new LongAdder()).increment();
+        }
+        numdocs.increment();
+
+        if(id != null){
+            int n = doc.size();
+            int[] ids = new int[n];
+            int[] tfs = new int[n];
+            int[] positions = new int[n];
+            int i = 0;
+            for(Map.Entry<String, int[]> e : doc.entrySet()){
+                ids[i] = termids.computeIfAbsent(e.getKey(), k -> nextid.getAndIncrement());
+                tfs[i] = e.getValue()[0];
+                positions[i] = e.getValue()[1];
+                i++;
+            }
+            docterms.put(id, new DocTerms(ids, tfs, positions));
+        }
+    }
+
+    /**
+     * Score the terms of every document, now that all document frequencies are known.
+     */
+    private void finish(){
+        if(finished){
+            return;
+        }
+        String[] terms = new String[nextid.get()];
+        long[] dfs = new long[terms.length];
+        for(Map.Entry<String, Integer> e : termids.entrySet()){
+            terms[e.getValue()] = e.getKey();
+            dfs[e.getValue()] = getDocFreq(e.getKey());
+        }
+
+        for(Map.Entry<String, DocTerms> e : docterms.entrySet()){
+            DocTerms doc = e.getValue();
+            String[] docwords = new String[doc.ids.length];
+            long[] docdfs = new long[doc.ids.length];
+            for(int i = 0; i < docwords.length; i++){
+                docwords[i] = terms[doc.ids[i]];
+                docdfs[i] = dfs[doc.ids[i]];
+            }
+            topterms.put(e.getKey(), top(docwords, doc.tfs, doc.positions, docdfs));
+        }
+
+        docterms = null;
+        termids.clear();
+        finished = true;
+    }
+
+    /**
+     * The TOPK terms with the highest tf-idf. Ties go to the term that comes first alphabetically.
+     */
+    private TopTerms top(String[] words, int[] tfs, int[] positions, long[] dfs){
+        double numdocs = getNumDocs();
+        double[] scores = new double[words.length];
+        Integer[] order = new Integer[words.length];
+        for(int i = 0; i < words.length; i++){
+            scores[i] = tfidf(tfs[i], dfs[i], numdocs);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> scores[a] != scores[b] ? Double.compare(scores[b], scores[a]) : words[a].compareTo(words[b]));
+
+        int k = Math.min(TOPK, words.length);
+        String[] topwords = new String[k];
+        int[] toppositions = new int[k];
+        double[] topscores = new double[k];
+        for(int i = 0; i < k; i++){
+            topwords[i] = words[order[i]];
+            toppositions[i] = positions[order[i]];
+            topscores[i] = scores[order[i]];
+        }
+        return new TopTerms(topwords, toppositions, topscores);
+    }
+
+    /**
+     * The top terms of a document. These are computed when the statistics are published, for every document
+     * that was counted. Any other document is scored on the first request.
+     * @param id
+     * @param ta the document, only read if it was not counted
+     * @return
+     */
+    public TopTerms getTopTerms(String id, TextAnnotation ta){
+        TopTerms top = topterms.get(id);
+        if(top == null){
+            LinkedHashMap<String, int[]> doc = new LinkedHashMap<>();
+            String[] tokens = ta.getTokens();
+            for(int i = 0; i < tokens.length; i++){
+                int[] tfpos = doc.computeIfAbsent(tokens[i], k -> new int[2]);
+                tfpos[0]++;
+                tfpos[1] = i;
+            }
+            int n = doc.size();
+            String[] words = new String[n];
+            int[] tfs = new int[n];
+            int[] positions = new int[n];
+            long[] dfs = new long[n];
+            int i = 0;
+            for(Map.Entry<String, int[]> e : doc.entrySet()){
+                words[i] = e.getKey();
+                tfs[i] = e.getValue()[0];
+                positions[i] = e.getValue()[1];
+                dfs[i] = getDocFreq(e.getKey());
+                i++;
+            }
+            top = top(words, tfs, positions, dfs);
+
+            // until the statistics are published, scores are not final.
+            if(finished){
+                topterms.put(id, top);
+            }
+        }
+        return top;
+    }
+
+    /**
+     * @param word
+     * @return the number of times this word occurs in the corpus.
+     */
+    public long getCount(String word){
+        LongAdder c = counts.get(word);
+        return c == null ? 0 : c.sum();
+    }
+
+    /**
+     * @param word
+     * @return the number of documents this word occurs in.
+     */
+    public long getDocFreq(String word){
+        LongAdder c = docfreqs.get(word);
+        return c == null ? 0 : c.sum();
+    }
+
+    public long getNumDocs(){
+        return numdocs.sum();
+    }
+
+    /**
+     * @param w
+     * @param doccounts the count of w in a document
+     * @return the tf-idf of w in that document, or 0 if w is not in the corpus.
+     */
+    public double tfidf(String w, int doccounts){
+        return tfidf(doccounts, getDocFreq(w), getNumDocs());
+    }
+
+    private static double tfidf(int tf, long df, double numdocs){
+        if(df > 0) {
+            return tf * Math.log(numdocs / df);
+        }else{
+            return 0;
+        }
+    }
+}
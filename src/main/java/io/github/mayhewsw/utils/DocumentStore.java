@@ -0,0 +1,342 @@
+package io.github.mayhewsw.utils;
+
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+import io.github.mayhewsw.KeyComparator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+/**
+ * The documents in one folder, loaded on demand. Creating a store only lists the folder: each document is
+ * deserialized the first time it is asked for, and then kept. Ids are file names, ordered by {@link KeyComparator}.
+ *
+ * A store may be shared between sessions (see {@link CorpusService}), so documents from {@link #get(String)}
+ * must not be modified.
+ *
+ * If snapshots are enabled, the first pass over all documents (see {@link #readAll}) also writes a
+ * {@link CorpusSnapshot}, and later reads come from the snapshot for every file that has not changed since.
+ */
+public class DocumentStore {
+
+    private static Logger logger = LoggerFactory.getLogger(DocumentStore.class);
+
+    // used for read ahead, which must not wait behind long passes. These threads never keep the server alive.
+    private static final ExecutorService background = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "document-store");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // used for passes over every document of a corpus, like counting patterns or statistics.
+    private static final ExecutorService passes = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "document-pass");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String foldertype;
+    private final String folder;
+
+    // maps from id to file, for every document in the folder.
+    private final TreeMap<String, File> files;
+    // maps from id to the modification time and length of its file, when the folder was listed.
+    private final HashMap<String, long[]> versions = new HashMap<>();
+
+    // documents that have been loaded so far.
+    private final ConcurrentHashMap<String, FutureTask<TextAnnotation>> loaded;
+
+    private final boolean usesnapshot;
+    private volatile CorpusSnapshot snapshot;
+
+    public DocumentStore(String foldertype, String folder) throws Exception {
+        this(foldertype, folder, false);
+    }
+
+    /**
+     * This lists the folder, but does not read any documents.
+     * @param foldertype one of the folder types in {@link io.github.mayhewsw.controllers.Common}
+     * @param folder
+     * @param usesnapshot whether to read and write a snapshot of this folder (if the folder type supports it)
+     * @throws Exception
+     */
+    public DocumentStore(String foldertype, String folder, boolean usesnapshot) throws Exception {
+        this.foldertype = foldertype;
+        this.folder = folder;
+        this.files = new TreeMap<>(new KeyComparator());
+        this.loaded = new ConcurrentHashMap<>();
+        this.usesnapshot = usesnapshot && CorpusSnapshot.supports(foldertype);
+
+        for(File f : IO.listFiles(folder)){
+            files.put(f.getName(), f);
+            versions.put(f.getName(), new long[]{f.lastModified(), f.length()});
+        }
+        logger.info("Found {} documents in {}", files.size(), folder);
+
+        if(this.usesnapshot){
+            snapshot = CorpusSnapshot.open(CorpusSnapshot.getFile(foldertype, folder));
+        }
+    }
+
+    /**
+     * Read a document from the snapshot if it is up to date there, and from its file otherwise.
+     * @param file
+     * @return
+     * @throws Exception
+     */
+    private TextAnnotation load(File file) throws Exception {
+        CorpusSnapshot snap = snapshot;
+        TextAnnotation ta;
+        if(snap != null && snap.isFresh(file)){
+            ta = snap.read(file.getName());
+        }else{
+            ta = IO.readFile(foldertype, file);
+        }
+        CorpusService.prepare(ta);
+        return ta;
+    }
+
+    /**
+     * @return true if every document can be read from the snapshot.
+     */
+    private boolean isSnapshotFresh(){
+        CorpusSnapshot snap = snapshot;
+        if(snap == null || snap.size() != files.size()){
+            return false;
+        }
+        for(File f : files.values()){
+            if(!snap.isFresh(f)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Run a short task on the background threads, such as reading one document.
+     * @param task
+     */
+    public static void submit(Runnable task){
+        background.execute(logged(task));
+    }
+
+    /**
+     * Run a pass over a whole corpus in the background. These have their own threads, so they do not hold up
+     * read ahead. A task that fails is logged; to retry, catch the exception in the task.
+     * @param task
+     */
+    public static void submitPass(Runnable task){
+        passes.execute(logged(task));
+    }
+
+    private static Runnable logged(Runnable task){
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Background task failed.", e);
+            }
+        };
+    }
+
+    /**
+     * List the folder again, and compare with the files it had when this store was created (by modification time
+     * and length, as {@link CorpusSnapshot#isFresh(File)} does).
+     * @return true if no file has been added, removed or changed since.
+     * @throws FileNotFoundException if the folder is gone
+     */
+    public boolean isUpToDate() throws FileNotFoundException {
+        List<File> current = IO.listFiles(folder);
+        if(current.size() != versions.size()){
+            return false;
+        }
+        for(File f : current){
+            long[] version = versions.get(f.getName());
+            if(version == null || version[0] != f.lastModified() || version[1] != f.length()){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getFolder(){
+        return folder;
+    }
+
+    /**
+     * Get a document, loading it if this is the first request.
+     * @param id
+     * @return the document, or null if there is no such document.
+     */
+    public TextAnnotation get(String id){
+        File file = files.get(id);
+        if(file == null){
+            return null;
+        }
+
+        try {
+            return CorpusService.getOrLoad(loaded, id, () -> load(file));
+        } catch (Exception e) {
+            throw new RuntimeException("Could not load document " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Get a document without keeping it in memory (unless it is already loaded). The result belongs to the
+     * caller only if it was not loaded before, so do not modify it.
+     * @param id
+     * @return
+     * @throws Exception
+     */
+    public TextAnnotation read(String id) throws Exception {
+        if(isLoaded(id)){
+            return get(id);
+        }
+        File file = files.get(id);
+        if(file == null){
+            return null;
+        }
+        return load(file);
+    }
+
+    /**
+     * Read every document in parallel, without keeping them in memory, and give each to action in id order.
+     * If the snapshot is missing or out of date, this writes a new one along the way.
+     * @param numthreads
+     * @param action called with the id and the document. Do not modify the document.
+     * @return a map from id to the error for every document that could not be read.
+     * @throws InterruptedException
+     */
+    public Map<String, Exception> readAll(int numthreads, BiConsumer<String, TextAnnotation> action) throws InterruptedException {
+        CorpusSnapshot snap = snapshot;
+        boolean roman = snap != null && snap.hasRoman();
+        return readAll(numthreads, action, usesnapshot && !isSnapshotFresh(), roman);
+    }
+
+    /**
+     * Read every document and write a new snapshot, whether or not the current one is up to date.
+     * @param roman whether to store romanized tokens in the snapshot
+     * @param numthreads
+     * @return a map from id to the error for every document that could not be read.
+     * @throws InterruptedException
+     */
+    public Map<String, Exception> writeSnapshot(boolean roman, int numthreads) throws InterruptedException {
+        if(!usesnapshot){
+            throw new IllegalStateException("No snapshots for folder type " + foldertype);
+        }
+        return readAll(numthreads, (id, ta) -> {}, true, roman);
+    }
+
+    private Map<String, Exception> readAll(int numthreads, BiConsumer<String, TextAnnotation> action, boolean write, boolean roman) throws InterruptedException {
+        File snapfile = CorpusSnapshot.getFile(foldertype, folder);
+        CorpusSnapshot.Writer writer = null;
+        if(write){
+            try {
+                writer = new CorpusSnapshot.Writer(snapfile, roman);
+            } catch (IOException e) {
+                logger.error("Cannot write snapshot " + snapfile + ": " + e.getMessage());
+            }
+        }
+        CorpusSnapshot.Writer snapwriter = writer;
+        boolean[] failed = {false};
+        Map<String, Exception> errors;
+        try {
+            errors = IO.readFiles(new ArrayList<>(files.values()), numthreads, this::load, (id, ta) -> {
+                if (snapwriter != null && !failed[0]) {
+                    try {
+                        snapwriter.add(files.get(id), ta);
+                    } catch (IOException e) {
+                        logger.error("Cannot write snapshot " + snapfile + ": " + e.getMessage());
+                        failed[0] = true;
+                    }
+                }
+                action.accept(id, ta);
+            });
+        } catch (InterruptedException | RuntimeException e) {
+            if(writer != null) writer.abort();
+            throw e;
+        }
+
+        if(writer != null){
+            if(failed[0] || !errors.isEmpty()){
+                writer.abort();
+            }else{
+                try {
+                    writer.finish();
+                    snapshot = CorpusSnapshot.open(snapfile);
+                } catch (IOException e) {
+                    logger.error("Cannot write snapshot " + snapfile + ": " + e.getMessage());
+                }
+            }
+        }
+
+        return errors;
+    }
+
+    /**
+     * Start loading the neighbors of this document in the background, so they are ready when the user
+     * clicks next or previous.
+     * @param id
+     */
+    public void readAhead(String id){
+        for(String neighbor : Arrays.asList(files.lowerKey(id), files.higherKey(id))){
+            if(neighbor != null && !loaded.containsKey(neighbor)){
+                submit(() -> {
+                    try {
+                        get(neighbor);
+                    }catch (RuntimeException e){
+                        logger.error(e.getMessage());
+                    }
+                });
+            }
+        }
+    }
+
+    public boolean isLoaded(String id){
+        FutureTask<TextAnnotation> task = loaded.get(id);
+        return task != null && task.isDone();
+    }
+
+    public boolean containsKey(String id){
+        return files.containsKey(id);
+    }
+
+    public int size(){
+        return files.size();
+    }
+
+    /**
+     * Metadata about a document that does not require loading it.
+     * @param id
+     * @return the size of the document file in bytes.
+     */
+    public long getFileSize(String id){
+        File file = files.get(id);
+        return file == null ? 0 : file.length();
+    }
+
+    public NavigableSet<String> keySet(){
+        return Collections.unmodifiableNavigableSet(files.navigableKeySet());
+    }
+
+    public String firstKey(){
+        return files.isEmpty() ? null : files.firstKey();
+    }
+
+    public String lastKey(){
+        return files.isEmpty() ? null : files.lastKey();
+    }
+
+    public String lowerKey(String id){
+        return files.lowerKey(id);
+    }
+
+    public String higherKey(String id){
+        return files.higherKey(id);
+    }
+}
@@ -40,13 +40,13 @@ public class FinalSaver {
                 TextAnnotation taorig = new CoNLLNerReader(origfolder + "/" + ta.getId()).next();
                 // this should overwrite the (empty) NER_CONLL view.
                 taorig.addView(ViewNames.NER_CONLL, ner);
-                View nerorig = taorig.getView(ViewNames.NER_CONLL);
+                SpanIndex nerorig = new SpanIndex(taorig.getView(ViewNames.NER_CONLL));
                 View sents = taorig.getView(ViewNames.SENTENCE);
 
                 for (Constituent sent : sents.getConstituents()) {
                     String sentid = getSentId(sent);
 
-                    if(nerorig.getConstituentsCovering(sent).size() == 0) continue;
+                    if(nerorig.getConstituentsCoveringSpan(sent.getStartSpan(), sent.getEndSpan()).size() == 0) continue;
 
                     // how to rewrite this sentence as a textannotation.
                     SentToConll(sent, outfolder);
@@ -69,7 +69,7 @@ public class FinalSaver {
 
         TextAnnotation ta = sent.getTextAnnotation();
         ArrayList talines = new ArrayList();
-        View nerview = ta.getView("NER_CONLL");
+        SpanIndex nerview = new SpanIndex(ta.getView("NER_CONLL"));
 
         for(int i = sent.getStartSpan(); i < sent.getEndSpan(); ++i) {
             String label = "O";
@@ -8,15 +8,15 @@ import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation
 import edu.illinois.cs.cogcomp.core.datastructures.textannotation.View;
 import io.github.mayhewsw.Dictionary;
 
-import org.apache.commons.lang3.StringUtils;
-
-
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
 
 /**
  * Created by stephen on 8/31/17.
+ *
+ * The HTML is written one token at a time, straight into an Appendable (a StringBuilder, or the response
+ * writer), so rendering a document does not build a string per token. All text and attribute values are escaped.
  */
 @SuppressWarnings("ALL")
 public class HtmlGenerator {
@@ -50,8 +50,59 @@ public class HtmlGenerator {
 
     // this is basically read only
     public static String getCopyableHTMLFromTA(TextAnnotation ta, Dictionary dict, boolean showdefs, boolean showroman, boolean showgoogle){
-        IntPair sentspan = new IntPair(-1, -1);
-        String id = ta.getId();
+        StringBuilder sb = new StringBuilder(ta.size() * 16);
+        try {
+            write(sb, ta, new IntPair(-1, -1), ta.getId(), "", dict, showdefs, showroman, true, showgoogle, true);
+        } catch (IOException e) {
+            // a StringBuilder never throws.
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Given a sentence, produce the HTML for display. .
+     * @return
+     */
+    public static String getHTMLfromTA(TextAnnotation ta, IntPair span, String id, String query, Dictionary dict, boolean showdefs, boolean showroman, boolean allowcopy, boolean showgoogle) {
+        int numtokens = span.getFirst() == -1 ? ta.size() : span.getSecond() - span.getFirst();
+        StringBuilder sb = new StringBuilder(numtokens * 80);
+        try {
+            writeHTMLfromTA(sb, ta, span, id, query, dict, showdefs, showroman, allowcopy, showgoogle);
+        } catch (IOException e) {
+            // a StringBuilder never throws.
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Same as {@link #getHTMLfromTA(TextAnnotation, IntPair, String, String, Dictionary, boolean, boolean, boolean, boolean)},
+     * but writes to out.
+     * @param out
+     * @param ta
+     * @param span the sentence to show, or (-1, -1) for the whole document
+     * @param id
+     * @param query tokens that start with this are emphasized
+     * @throws IOException
+     */
+    public static void writeHTMLfromTA(Appendable out, TextAnnotation ta, IntPair span, String id, String query, Dictionary dict, boolean showdefs, boolean showroman, boolean allowcopy, boolean showgoogle) throws IOException {
+        write(out, ta, span, id, query, dict, showdefs, showroman, allowcopy, showgoogle, false);
+    }
+
+    /**
+     * Write the card for a document or a sentence. The tokens are cut into segments at sentence boundaries, and
+     * each segment is rendered on its own and kept in the {@link RenderCache}. A segment is only rendered again
+     * if its spans or the display options change, so an edit re-renders one sentence.
+     *
+     * Within a segment, each token is written with the markup that opens before it and closes after it:
+     * sentences outermost, then NER and google spans, then the token itself.
+     * @param copyable if true, tokens are plain text, as in {@link #getCopyableHTMLFromTA}
+     */
+    private static void write(Appendable out, TextAnnotation ta, IntPair span, String id, String query, Dictionary dict, boolean showdefs, boolean showroman, boolean allowcopy, boolean showgoogle, boolean copyable) throws IOException {
+
+        IntPair sentspan = span;
+        boolean whole = sentspan.getFirst() == -1;
 
         // required to have one view or another...
         View ner;
@@ -62,26 +113,6 @@ public class HtmlGenerator {
         }
 
         View googleNer = null;
-
-        View nersugg = null;
-        if(ta.hasView("NER_SUGGESTION")) {
-            nersugg = ta.getView("NER_SUGGESTION");
-        }else{
-            // create a dummy view!
-            nersugg = new SpanLabelView("NER_SUGGESTION", ta);
-            ta.addView("NER_SUGGESTION", nersugg);
-        }
-
-        String[] nonroman_text = ta.getTokens().clone();
-
-        // We clone the text so that when we modify it (below) the TA is unchanged.
-        String[] text;
-        if(showroman) {
-            text = Utils.getRomanTaToks(ta);
-        }else {
-            text = ta.getTokens().clone();
-        }
-
         if(showgoogle) {
             //text = Utils.getGoogleTaToks(ta);
             if (ta.hasView("GOOGLE")) {
@@ -89,263 +120,309 @@ public class HtmlGenerator {
             }
         }
 
-        if(sentspan.getFirst() != -1) {
-            text = Arrays.copyOfRange(text, sentspan.getFirst(), sentspan.getSecond());
-        }
-
-        // add spans to every word that is not a constituent.
-        for (int t = 0; t < text.length; t++) {
-            String def = null;
-            if (dict != null && dict.containsKey(nonroman_text[t])) {
-                def = dict.get(nonroman_text[t]).get(0);
-            }
+        int startoffset = whole ? 0 : sentspan.getFirst();
+        int numtokens = whole ? ta.size() : sentspan.getSecond() - sentspan.getFirst();
 
-            if (showdefs && def != null) {
-                text[t] = def;
-            }
+        List<Constituent> sentlist = constituents(ta.getView(ViewNames.SENTENCE), sentspan);
+        TreeSet<Integer> cuts = new TreeSet<>();
+        cuts.add(0);
+        cuts.add(numtokens);
+        for(Constituent c : sentlist){
+            cuts.add(Math.max(0, Math.min(numtokens, c.getStartSpan() - startoffset)));
+            cuts.add(Math.max(0, Math.min(numtokens, c.getEndSpan() - startoffset)));
         }
-
-        List<Constituent> sentner;
-        List<Constituent> sentnersugg;
-        int startoffset;
-        if(sentspan.getFirst() == -1){
-            sentner = ner.getConstituents();
-            sentnersugg = nersugg.getConstituents();
-            startoffset = 0;
-        }else {
-            sentner = ner.getConstituentsCoveringSpan(sentspan.getFirst(), sentspan.getSecond());
-            sentnersugg = ner.getConstituentsCoveringSpan(sentspan.getFirst(), sentspan.getSecond());
-            startoffset = sentspan.getFirst();
+        int[] bounds = new int[cuts.size()];
+        int n = 0;
+        for(int cut : cuts){
+            bounds[n++] = cut;
         }
 
-        for (Constituent c : sentner) {
+        List<List<Constituent>> segsents = bucket(sentlist, bounds, startoffset);
+        List<List<Constituent>> segner = bucket(constituents(ner, sentspan), bounds, startoffset);
+        List<List<Constituent>> seggoogle = bucket(constituents(googleNer, sentspan), bounds, startoffset);
 
-            int start = c.getStartSpan() - startoffset;
-            int end = c.getEndSpan() - startoffset;
+        // only needed if something has to be rendered.
+        String[] text = null;
 
-            // important to also include 'cons' class, as it is a keyword in the html
-            text[start] = String.format("<span class='%s cons' id='cons-%d-%d' title='%s'>%s", c.getLabel(), start, end, c.getLabel(), text[start]);
-            text[end - 1] += "</span>";
+        String sep = "";
+        if(allowcopy){
+            sep = " ";
         }
 
-        // Then add sentences.
-        List<Constituent> sentlist;
-        List<Constituent> sentGoogleNer = new ArrayList<>();
-        View sentview = ta.getView(ViewNames.SENTENCE);
-        if(sentspan.getFirst() == -1){
-            sentlist = sentview.getConstituents();
-            if (googleNer != null) {
-                sentGoogleNer = googleNer.getConstituents();
-            }
-            startoffset = 0;
-        }else {
-            sentlist = sentview.getConstituentsCoveringSpan(sentspan.getFirst(), sentspan.getSecond());
-            if (googleNer != null) {
-                sentGoogleNer = googleNer.getConstituentsCoveringSpan(sentspan.getFirst(), sentspan.getSecond());
-            }
-            startoffset = sentspan.getFirst();
+        out.append("<div class=\"card\"><div class=\"card-header\">");
+        escape(out, id);
+        out.append("</div><div class=\"card-body text");
+        if(!allowcopy){
+            out.append(" nocopy");
         }
-
-        if (sentGoogleNer.size() > 0) {
-            for (Constituent c : sentGoogleNer) {
-
-                int start = c.getStartSpan() - startoffset;
-                int end = c.getEndSpan() - startoffset;
-
-                // important to also include 'cons' class, as it is a keyword in the html
-                text[start] = String.format("<span class='suggestion' id='cons-%d-%d' title='%s'>%s", start, end, c.getLabel(), text[start]);
-                text[end - 1] += "</span>";
+        out.append("\" dir=\"auto\" id=\"");
+        escape(out, id);
+        out.append("\">");
+
+        for(int seg = 0; seg + 1 < bounds.length; seg++){
+            int lo = bounds[seg];
+            int hi = bounds[seg + 1];
+            if(seg > 0){
+                out.append(sep);
             }
-        }
-
-        for (Constituent c : sentlist) {
 
-            int start = c.getStartSpan() - startoffset;
-            int end = c.getEndSpan() - startoffset;
+            // everything that this segment depends on, apart from the document itself.
+            StringBuilder key = new StringBuilder();
+            key.append(id).append('\0').append(startoffset).append('\0').append(lo).append('\0').append(hi).append('\0')
+                    .append(showdefs ? 'd' : '-').append(showroman ? 'r' : '-').append(allowcopy ? 'c' : '-')
+                    .append(showgoogle ? 'g' : '-').append(copyable ? 'p' : '-').append('\0').append(query);
+            if(showdefs && dict != null){
+                key.append('\0').append(dict.getVersion());
+            }
+            for(Constituent c : segner.get(seg)){
+                key.append('\0').append(c.getStartSpan()).append(',').append(c.getEndSpan()).append(',').append(c.getLabel());
+            }
+            key.append('\0');
+            for(Constituent c : seggoogle.get(seg)){
+                key.append('\0').append(c.getStartSpan()).append(',').append(c.getEndSpan()).append(',').append(c.getLabel());
+            }
 
-            text[start] = "<p>" + text[start];
-            text[end - 1] += "</p>";
+            String html = RenderCache.get(ta, key.toString());
+            if(html == null){
+                if(text == null){
+                    text = showroman ? Romanizer.romanize(ta) : ta.getTokens();
+                }
+                StringBuilder sb = new StringBuilder((hi - lo) * 80);
+                writeSegment(sb, ta.getTokens(), text, lo, hi, startoffset, id, query, dict, showdefs, copyable, sep,
+                        segsents.get(seg), segner.get(seg), seggoogle.get(seg));
+                html = sb.toString();
+                RenderCache.put(ta, key.toString(), html);
+            }
+            out.append(html);
         }
 
-        String html = StringUtils.join(text, " ");
-
-        String htmltemplate = "<div class=\"card\">" +
-                    "<div class=\"card-header\">%s</div>" +
-                    "<div class=\"card-body text\" dir=\"auto\" id=%s>%s</div></div>";
-        String out = String.format(htmltemplate, id, id, html) + "\n";
-
-
-        return out;
+        out.append("</div></div>\n");
     }
 
-
     /**
-     * Given a sentence, produce the HTML for display. .
-     * @return
+     * Write tokens lo to hi (relative to startoffset).
      */
-    public static String getHTMLfromTA(TextAnnotation ta, IntPair span, String id, String query, Dictionary dict, boolean showdefs, boolean showroman, boolean allowcopy, boolean showgoogle) {
+    private static void writeSegment(Appendable out, String[] nonroman_text, String[] text, int lo, int hi, int startoffset, String id, String query, Dictionary dict, boolean showdefs, boolean copyable, String sep, List<Constituent> sentlist, List<Constituent> nerlist, List<Constituent> googlelist) throws IOException {
+        Spans sents = new Spans(sentlist, startoffset, lo, hi, false);
+        Spans nerspans = new Spans(nerlist, startoffset, lo, hi, false);
+        Spans googlespans = new Spans(googlelist, startoffset, lo, hi, true);
+
+        // in the copyable version, google spans go outside NER spans.
+        Spans outer = copyable ? googlespans : nerspans;
+        Spans inner = copyable ? nerspans : googlespans;
+
+        for (int t = lo; t < hi; t++) {
+            if(t > lo){
+                out.append(sep);
+            }
 
-        IntPair sentspan = span;
+            for(int i = sents.opening(t); i-- > 0;){
+                out.append("<p>");
+            }
+            outer.open(out, t, copyable);
+            inner.open(out, t, copyable);
 
-        // required to have one view or another...
-        View ner;
-        if(ta.hasView(ViewNames.NER_ONTONOTES)){
-            ner = ta.getView(ViewNames.NER_ONTONOTES);
-        } else{
-            ner = ta.getView(ViewNames.NER_CONLL);
-        }
+            String orig = nonroman_text[t + startoffset];
+            String def = null;
+            if (dict != null && dict.containsKey(orig)) {
+                def = dict.get(orig).get(0);
+            }
+            String tok = text[t + startoffset];
+
+            if(copyable){
+                escape(out, showdefs && def != null ? def : tok);
+            }else {
+                // The orig attribute is used in the dictionary.
+                out.append("<span class='token pointer");
+                if (showdefs && def != null) {
+                    out.append(" def");
+                    tok = def;
+                } else if (query != null && query.length() > 0 && tok.startsWith(query)) {
+                    // FIXME: this will only work for single word queries.
+                    out.append(" emph");
+                }
+                out.append("' orig=\"");
+                escape(out, orig);
+                out.append("\" id='tok-");
+                escape(out, id);
+                out.append('-').append(Integer.toString(t)).append("'>");
+                escape(out, tok);
+                out.append("</span>");
+            }
 
-        View nersugg = null;
-        if(ta.hasView("NER_SUGGESTION")) {
-            nersugg = ta.getView("NER_SUGGESTION");
-        }else{
-            // create a dummy view!
-            nersugg = new SpanLabelView("NER_SUGGESTION", ta);
-            ta.addView("NER_SUGGESTION", nersugg);
+            inner.close(out, t);
+            outer.close(out, t);
+            for(int i = sents.closing(t); i-- > 0;){
+                out.append("</p>");
+            }
         }
+    }
 
-        View googleNer = null;
-
-        String[] nonroman_text = ta.getTokens().clone();
-
-        // We clone the text so that when we modify it (below) the TA is unchanged.
-        String[] text;
-        if(showroman) {
-            text = Utils.getRomanTaToks(ta);
-        }else {
-            text = ta.getTokens().clone();
+    /**
+     * Split constituents by segment. A constituent that crosses a boundary is in both segments.
+     * @param cs
+     * @param bounds the segment boundaries, relative to startoffset
+     * @param startoffset
+     * @return one list for each segment
+     */
+    private static List<List<Constituent>> bucket(List<Constituent> cs, int[] bounds, int startoffset){
+        List<List<Constituent>> ret = new ArrayList<>();
+        for(int i = 0; i + 1 < bounds.length; i++){
+            ret.add(new ArrayList<>());
         }
-
-        if(showgoogle) {
-            //text = Utils.getGoogleTaToks(ta);
-            if (ta.hasView("GOOGLE")) {
-                googleNer = ta.getView("GOOGLE");
+        for(Constituent c : cs){
+            int start = c.getStartSpan() - startoffset;
+            int end = c.getEndSpan() - startoffset;
+            int seg = Arrays.binarySearch(bounds, Math.max(0, start));
+            if(seg < 0){
+                seg = -seg - 2;
+            }
+            for(; seg >= 0 && seg + 1 < bounds.length && bounds[seg] < end; seg++){
+                ret.get(seg).add(c);
             }
         }
+        return ret;
+    }
 
-        if(sentspan.getFirst() != -1) {
-            text = Arrays.copyOfRange(text, sentspan.getFirst(), sentspan.getSecond());
-            nonroman_text = Arrays.copyOfRange(nonroman_text, sentspan.getFirst(), sentspan.getSecond());
-
+    /**
+     * The constituents of view in this span, or all of them if the span is (-1, -1).
+     */
+    private static List<Constituent> constituents(View view, IntPair span){
+        if(view == null){
+            return new ArrayList<>();
+        }else if(span.getFirst() == -1){
+            return view.getConstituents();
+        }else{
+            return view.getConstituentsCoveringSpan(span.getFirst(), span.getSecond());
         }
+    }
 
-        // add spans to every word that is not a constituent.
-        for (int t = 0; t < text.length; t++) {
-            String def = null;
-            if (dict != null && dict.containsKey(nonroman_text[t])) {
-                def = dict.get(nonroman_text[t]).get(0);
+    /**
+     * Write s to out, escaped for use in HTML text or in a quoted attribute.
+     * @param out
+     * @param s
+     * @throws IOException
+     */
+    public static void escape(Appendable out, String s) throws IOException {
+        int last = 0;
+        for(int i = 0; i < s.length(); i++){
+            String rep;
+            switch (s.charAt(i)){
+                case '&': rep = "&amp;"; break;
+                case '<': rep = "&lt;"; break;
+                case '>': rep = "&gt;"; break;
+                case '"': rep = "&quot;"; break;
+                case '\'': rep = "&#39;"; break;
+                default: continue;
             }
+            out.append(s, last, i).append(rep);
+            last = i + 1;
+        }
+        out.append(s, last, s.length());
+    }
 
-            String tokid = String.format("tok-%s-%s", id, t);
-
-
-            // The orig attribute is used in the dictionary.
-            if (showdefs && def != null) {
-                text[t] = "<span class='token pointer def' orig=\""+nonroman_text[t]+"\" id='"+tokid+"'>" + def + "</span>";
-            } else {
-                // FIXME: this will only work for single word queries.
-                if (query.length() > 0 && text[t].startsWith(query)) {
-                    text[t] = "<span class='token pointer emph' orig=\""+nonroman_text[t]+"\" id='"+tokid+"'>" + text[t] + "</span>";
-                } else {
-                    text[t] = "<span class='token pointer' orig=\""+nonroman_text[t]+"\" id='"+tokid+"'>" + text[t] + "</span>";
+    /**
+     * The constituents of one view in the segment being rendered, ordered so that the ones that open or close at
+     * a token can be found by moving forward through two lists. Constituents that run past either end of the
+     * segment are cut off at that end.
+     */
+    private static class Spans {
+        private final List<Constituent> bystart;
+        private final List<Constituent> byend;
+        private final int offset;
+        private final int lo;
+        private final int hi;
+        private final boolean suggestion;
+        private int nextstart = 0;
+        private int nextend = 0;
+
+        /**
+         * @param suggestion if true, these are google suggestions, and not NER spans.
+         */
+        Spans(List<Constituent> cs, int offset, int lo, int hi, boolean suggestion){
+            this.offset = offset;
+            this.lo = lo;
+            this.hi = hi;
+            this.suggestion = suggestion;
+            bystart = new ArrayList<>();
+            for(Constituent c : cs){
+                if(start(c) < end(c)){
+                    bystart.add(c);
                 }
             }
+            byend = new ArrayList<>(bystart);
+            // these sorts are stable, so constituents with the same start keep the order of the view.
+            bystart.sort(Comparator.comparingInt(this::start));
+            byend.sort(Comparator.comparingInt(this::end));
         }
 
-        List<Constituent> sentner;
-        List<Constituent> sentGoogleNer = new ArrayList<>();
-        List<Constituent> sentnersugg;
-        int startoffset;
-        if(sentspan.getFirst() == -1){
-            sentner = ner.getConstituents();
-            sentnersugg = nersugg.getConstituents();
-            if (googleNer != null) {
-                sentGoogleNer = googleNer.getConstituents();
-            }
-            startoffset = 0;
-        }else {
-            sentner = ner.getConstituentsCoveringSpan(sentspan.getFirst(), sentspan.getSecond());
-            sentnersugg = ner.getConstituentsCoveringSpan(sentspan.getFirst(), sentspan.getSecond());
-            if (googleNer != null) {
-                sentGoogleNer = googleNer.getConstituentsCoveringSpan(sentspan.getFirst(), sentspan.getSecond());
-            }
-            startoffset = sentspan.getFirst();
+        private int start(Constituent c){
+            return Math.max(lo, c.getStartSpan() - offset);
         }
 
-        if (sentGoogleNer.size() > 0) {
-            for (Constituent c : sentGoogleNer) {
-
-                int start = c.getStartSpan() - startoffset;
-                int end = c.getEndSpan() - startoffset;
-
-                // important to also include 'cons' class, as it is a keyword in the html
-                text[start] = String.format("<span class='suggestion' id='cons-%d-%d' title='%s'>%s", start, end, c.getLabel(), text[start]);
-                text[end - 1] += "</span>";
-            }
+        private int end(Constituent c){
+            return Math.min(hi, c.getEndSpan() - offset);
         }
 
-
-        for (Constituent c : sentner) {
-
-            int start = c.getStartSpan() - startoffset;
-            int end = c.getEndSpan() - startoffset;
-
-            // important to also include 'cons' class, as it is a keyword in the html
-            text[start] = String.format("<span class='%s pointer cons' id='cons-%d-%d' title='%s'>%s", c.getLabel(), start, end, c.getLabel(), text[start]);
-            text[end - 1] += "</span>";
+        /**
+         * @return the number of constituents that open at token t. Call once per token, in order.
+         */
+        int opening(int t){
+            int n = 0;
+            while(nextstart < bystart.size() && start(bystart.get(nextstart)) <= t){
+                nextstart++;
+                n++;
+            }
+            return n;
         }
 
-
-//        for (Constituent c : sentnersugg) {
-//
-//            int start = c.getStartSpan() - startoffset;
-//            int end = c.getEndSpan() - startoffset;
-//
-//            // important to also include 'cons' class, as it is a keyword in the html
-//            text[start] = String.format("<strong>%s", text[start]);
-//            text[end - 1] += "</strong>";
-//        }
-
-        // Then add sentences.
-        List<Constituent> sentlist;
-        View sentview = ta.getView(ViewNames.SENTENCE);
-        if(sentspan.getFirst() == -1){
-            sentlist = sentview.getConstituents();
-            startoffset = 0;
-        }else {
-            sentlist = sentview.getConstituentsCoveringSpan(sentspan.getFirst(), sentspan.getSecond());
-            startoffset = sentspan.getFirst();
+        /**
+         * @return the number of constituents that close after token t. Call once per token, in order.
+         */
+        int closing(int t){
+            int n = 0;
+            while(nextend < byend.size() && end(byend.get(nextend)) <= t + 1){
+                nextend++;
+                n++;
+            }
+            return n;
         }
 
-        for (Constituent c : sentlist) {
+        /**
+         * Open every span that starts at token t. When several start together, the last one is outermost.
+         */
+        void open(Appendable out, int t, boolean copyable) throws IOException {
+            int first = nextstart;
+            opening(t);
+            for(int i = nextstart - 1; i >= first; i--){
+                Constituent c = bystart.get(i);
+                String label = c.getLabel();
+                int start = c.getStartSpan() - offset;
+                int end = c.getEndSpan() - offset;
 
-            int start = c.getStartSpan() - startoffset;
-            int end = c.getEndSpan() - startoffset;
-
-            text[start] = "<p>" + text[start];
-            text[end - 1] += "</p>";
-        }
-
-        String sep = "";
-        if(allowcopy){
-            sep = " ";
+                // important to also include 'cons' class, as it is a keyword in the html
+                if(suggestion){
+                    out.append("<span class='suggestion'");
+                }else {
+                    out.append("<span class='");
+                    escape(out, label);
+                    out.append(copyable ? " cons'" : " pointer cons'");
+                }
+                out.append(" id='cons-").append(Integer.toString(start)).append('-').append(Integer.toString(end));
+                out.append("' title='");
+                escape(out, label);
+                out.append("'>");
+            }
         }
-        String html = StringUtils.join(text, sep);
 
-        String htmltemplate;
-        if(allowcopy){
-            htmltemplate = "<div class=\"card\">" +
-                    "<div class=\"card-header\">%s</div>" +
-                    "<div class=\"card-body text\" dir=\"auto\" id=%s>%s</div></div>";
-        }else{
-            htmltemplate = "<div class=\"card\">" +
-                    "<div class=\"card-header\">%s</div>" +
-                    "<div class=\"card-body text nocopy\" dir=\"auto\" id=%s>%s</div></div>";
+        /**
+         * Close every span that ends at token t.
+         */
+        void close(Appendable out, int t) throws IOException {
+            for(int i = closing(t); i-- > 0;){
+                out.append("</span>");
+            }
         }
-        String out = String.format(htmltemplate, id, id, html) + "\n";
-
-
-        return out;
     }
 
 }
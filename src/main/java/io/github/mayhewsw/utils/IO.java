@@ -4,6 +4,7 @@ import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation
 import edu.illinois.cs.cogcomp.core.io.IOUtils;
 import edu.illinois.cs.cogcomp.core.utilities.SerializationHelper;
 import edu.illinois.cs.cogcomp.nlp.corpusreaders.CoNLLNerReader;
+import io.github.mayhewsw.KeyComparator;
 import io.github.mayhewsw.controllers.Common;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,91 +13,177 @@ import java.io.File;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 
 public class IO {
     private static Logger logger = LoggerFactory.getLogger(IO.class);
 
     /**
-     * This loads a group of textannotations from
+     * This loads a group of textannotations from a folder, in parallel. For ta and tajson folders, this is keyed
+     * by file name (see {@link DocumentStore}); for conll and column folders the file name is also the id. Files
+     * that cannot be read are logged and skipped.
      * @param foldertype
      * @param folder
      * @param ret
      * @throws Exception
      */
     public static void read(String foldertype, String folder, Map<String, TextAnnotation> ret) throws Exception {
+        Map<String, Exception> errors = read(foldertype, folder, ret, Runtime.getRuntime().availableProcessors());
+        for(String name : errors.keySet()){
+            logger.error("Could not read " + name + ": " + errors.get(name).getMessage());
+        }
+    }
 
-        if (foldertype.equals(Common.FOLDERTA)) {
-            File outf = new File(folder);
+    /**
+     * This loads a group of textannotations from a folder, using numthreads threads. Documents are put in
+     * ret in {@link KeyComparator} order, whatever order they finish in.
+     * @param foldertype
+     * @param folder
+     * @param ret
+     * @param numthreads
+     * @return a map from file name to the error for every file that could not be read.
+     * @throws Exception
+     */
+    public static Map<String, Exception> read(String foldertype, String folder, Map<String, TextAnnotation> ret, int numthreads) throws Exception {
+        List<File> files = listFiles(folder);
+        files.sort((a, b) -> new KeyComparator().compare(a.getName(), b.getName()));
 
-            if(!outf.exists()){
-                throw new FileNotFoundException("Folder " + folder + " does not exist.");
-            }
+        return readFiles(files, numthreads, f -> readFile(foldertype, f), ret::put);
+    }
 
-            File[] files = outf.listFiles();
-            int limit = Math.min(files.length, 500);
+    /**
+     * Reads a single file into a textannotation.
+     */
+    public interface DocumentReader {
+        TextAnnotation read(File file) throws Exception;
+    }
 
-            for (int i = 0; i < limit; i++) {
-                File file = files[i];
-                TextAnnotation ta = SerializationHelper.deserializeTextAnnotationFromFile(file.getAbsolutePath());
-                // NOTE: ideally file.getName() == ta.getID(), but this is not always the case.
-                //ret.put(file.getName(), ta);
-                ret.put(ta.getId(), ta);
+    /**
+     * Read these files in parallel, and give each document to action, on the calling thread and in the
+     * order of files. At most a few files per thread are held in memory at once, so this can be used on
+     * folders that do not fit in memory.
+     * @param files
+     * @param numthreads
+     * @param reader how to read each file, usually {@link #readFile(String, File)}
+     * @param action called with the file name and the document
+     * @return a map from file name to the error for every file that could not be read.
+     * @throws InterruptedException
+     */
+    public static Map<String, Exception> readFiles(List<File> files, int numthreads, DocumentReader reader, BiConsumer<String, TextAnnotation> action) throws InterruptedException {
+        numthreads = Math.max(numthreads, 1);
+        int window = numthreads * 4;
+
+        Map<String, Exception> errors = new TreeMap<>(new KeyComparator());
+        ExecutorService pool = Executors.newFixedThreadPool(numthreads);
+        ArrayDeque<Future<TextAnnotation>> pending = new ArrayDeque<>();
+
+        try {
+            int next = 0;
+            for (int i = 0; i < files.size(); i++) {
+                // keep the pool busy, but don't get too far ahead of the consumer.
+                while (next < files.size() && next < i + window) {
+                    File file = files.get(next++);
+                    pending.add(pool.submit(() -> reader.read(file)));
+                }
+
+                String name = files.get(i).getName();
+                try {
+                    action.accept(name, pending.poll().get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    errors.put(name, cause instanceof Exception ? (Exception) cause : e);
+                }
             }
-        }else if(foldertype.equals(Common.FOLDERTAJSON)){
-
-            File outf = new File(folder);
+        }finally {
+            pool.shutdownNow();
+        }
 
-            if(!outf.exists()){
-                throw new FileNotFoundException("Folder " + folder + " does not exist.");
-            }
+        return errors;
+    }
 
-            File[] files = outf.listFiles();
+    /**
+     * List the document files in this folder (in no particular order).
+     * @param folder
+     * @return
+     * @throws FileNotFoundException
+     */
+    public static List<File> listFiles(String folder) throws FileNotFoundException {
+        File outf = new File(folder);
+        File[] files = outf.listFiles();
 
-            int limit = Math.min(files.length, 500);
+        if(files == null){
+            throw new FileNotFoundException("Folder " + folder + " does not exist.");
+        }
 
-            for (int i = 0; i < limit; i++) {
-                File file = files[i];
-                TextAnnotation ta = SerializationHelper.deserializeTextAnnotationFromFile(file.getAbsolutePath(), true);
-                ret.put(file.getName(), ta);
+        List<File> ret = new ArrayList<>();
+        for(File file : files){
+            // skip subfolders and editor backups.
+            if(file.isFile() && !file.getName().endsWith("~")){
+                ret.add(file);
             }
-        } else if (foldertype.equals(Common.FOLDERCONLL)) {
-            CoNLLNerReader cnl = new CoNLLNerReader(folder);
-            while (cnl.hasNext()) {
-                TextAnnotation ta = cnl.next();
-                logger.info("Loading: " + ta.getId());
+        }
+        return ret;
+    }
 
-                ret.put(ta.getId(), ta);
-            }
+    /**
+     * This loads a single textannotation from a file.
+     * @param foldertype
+     * @param file
+     * @return
+     * @throws Exception
+     */
+    public static TextAnnotation readFile(String foldertype, File file) throws Exception {
+        if (foldertype.equals(Common.FOLDERTA)) {
+            // NOTE: ideally file.getName() == ta.getID(), but this is not always the case, so documents are keyed
+            // by file name, and saved under that name too (see save).
+            return SerializationHelper.deserializeTextAnnotationFromFile(file.getAbsolutePath());
+        }else if(foldertype.equals(Common.FOLDERTAJSON)){
+            return SerializationHelper.deserializeTextAnnotationFromFile(file.getAbsolutePath(), true);
+        } else if (foldertype.equals(Common.FOLDERCONLL)) {
+            logger.info("Loading: " + file.getName());
+            return new CoNLLNerReader(file.getAbsolutePath()).next();
         }else if (foldertype.equals(Common.FOLDERCOLUMN)) {
-            ColumnReader cnl = new ColumnReader(folder);
-            while (cnl.hasNext()) {
-                TextAnnotation ta = cnl.next();
-                logger.info("Loading: " + ta.getId());
-
-                ret.put(ta.getId(), ta);
-            }
+            return ColumnReader.loadColumnfile(file.getAbsolutePath());
         }
 
+        throw new IllegalArgumentException("Unknown folder type: " + foldertype);
     }
 
     /**
-     * This saves an individual TextAnnotation to the desired output folder.
+     * This saves an individual TextAnnotation to the desired output folder, under its own id.
      * @param foldertype
      * @param path
      * @param ta
      * @throws IOException
      */
     public static void save(String foldertype, String path, TextAnnotation ta) throws IOException {
+        save(foldertype, path, ta.getId(), ta);
+    }
+
+    /**
+     * This saves an individual TextAnnotation to the desired output folder. Documents are keyed by file name
+     * (see {@link DocumentStore}), so pass the key the document was loaded with: then the saved file replaces
+     * the original, even if the file name is not the same as ta.getId().
+     * @param foldertype
+     * @param path
+     * @param id the file name to save to (for folder types that have one file per document)
+     * @param ta
+     * @throws IOException
+     */
+    public static void save(String foldertype, String path, String id, TextAnnotation ta) throws IOException {
         if(!IOUtils.exists(path)) {
             IOUtils.mkdir(path);
         }
 
         if(foldertype.equals(Common.FOLDERTA)) {
-            SerializationHelper.serializeTextAnnotationToFile(ta, path + "/" + ta.getId(), true);
+            SerializationHelper.serializeTextAnnotationToFile(ta, path + "/" + id, true);
         }else if(foldertype.equals(Common.FOLDERTAJSON)) {
-            SerializationHelper.serializeTextAnnotationToFile(ta, path + "/" + ta.getId(), true, true);
+            SerializationHelper.serializeTextAnnotationToFile(ta, path + "/" + id, true, true);
         }else if(foldertype.equals(Common.FOLDERCONLL)) {
             CoNLLNerReader.TaToConll(Collections.singletonList(ta), path);
         }else if(foldertype.equals(Common.FOLDERCOLUMN)) {
@@ -0,0 +1,208 @@
+package io.github.mayhewsw.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * An append-only file of lines. Lines are only ever added at the end, so a crash can at worst cut off the last
+ * line; everything before it is kept.
+ *
+ * Appending writes the line right away, but does not wait for the disk: all lines appended within SYNCDELAY ms
+ * are synced together, on a background thread.
+ *
+ * There is one journal per file (see {@link #get(Path)}), so that different sessions can append to the same file.
+ * {@link #compactIf(Function)} replaces the whole file, for when it has grown much longer than what it describes.
+ */
+public class Journal {
+
+    private static Logger logger = LoggerFactory.getLogger(Journal.class);
+
+    private static final long SYNCDELAY = 200;
+
+    // these threads never keep the server alive.
+    private static final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "journal-sync");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final ConcurrentHashMap<Path, Journal> journals = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private FileChannel channel;
+    private boolean syncpending;
+
+    /**
+     * Get the journal for this file, opening it if this is the first request.
+     * @param path
+     * @return
+     */
+    public static Journal get(Path path){
+        return journals.computeIfAbsent(path.toAbsolutePath().normalize(), Journal::new);
+    }
+
+    private Journal(Path path){
+        this.path = path;
+    }
+
+    private FileChannel channel() throws IOException {
+        if(channel == null){
+            File parent = path.toFile().getParentFile();
+            if(parent != null){
+                parent.mkdirs();
+            }
+            // files written some other way may not end with a line break.
+            boolean needsbreak = false;
+            if(Files.exists(path) && Files.size(path) > 0){
+                try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                    ByteBuffer last = ByteBuffer.allocate(1);
+                    in.read(last, in.size() - 1);
+                    needsbreak = last.get(0) != '\n';
+                }
+            }
+
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            if(needsbreak){
+                channel.write(ByteBuffer.wrap(new byte[]{'\n'}));
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * Add lines to the end of the file.
+     * @param lines lines without line breaks
+     * @throws IOException
+     */
+    public synchronized void append(List<String> lines) throws IOException {
+        if(lines.isEmpty()){
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for(String line : lines){
+            sb.append(line).append('\n');
+        }
+        ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        FileChannel ch = channel();
+        while(buf.hasRemaining()){
+            ch.write(buf);
+        }
+
+        if(!syncpending){
+            syncpending = true;
+            syncer.schedule(this::sync, SYNCDELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Wait until everything appended so far is on disk.
+     */
+    public synchronized void sync(){
+        syncpending = false;
+        if(channel == null){
+            return;
+        }
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            logger.error("Cannot sync " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replace the file with these lines. The new file is written next to the old one and moved over it, so
+     * the journal is never half written. Call this while holding the lock.
+     * @param lines lines without line breaks
+     * @throws IOException
+     */
+    private void compact(List<String> lines) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder sb = new StringBuilder();
+            for(String line : lines){
+                sb.append(line).append('\n');
+            }
+            ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while(buf.hasRemaining()){
+                ch.write(buf);
+            }
+            ch.force(true);
+        }
+
+        if(channel != null){
+            channel.close();
+            channel = null;
+        }
+        syncpending = false;
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Compacted {} to {} lines.", path, lines.size());
+    }
+
+    /**
+     * Read the lines of this journal, and replace them with shorter ones if compact says so. Both happen under
+     * the lock of this journal, so no line appended in the meantime can be lost. If the file cannot be replaced,
+     * the error is logged and the file stays as it was.
+     * @param compact given the lines, returns the lines to replace them with, or null to leave the file alone
+     * @return the lines as they were read, or an empty list if the file does not exist.
+     * @throws IOException if the file cannot be read
+     */
+    public synchronized List<String> compactIf(Function<List<String>, List<String>> compact) throws IOException {
+        List<String> lines = read(path);
+        List<String> compacted = compact.apply(lines);
+        if(compacted != null){
+            try {
+                compact(compacted);
+            } catch (IOException e) {
+                logger.error("Cannot compact " + path + ": " + e.getMessage());
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Read the lines of this journal.
+     * @return the lines, or an empty list if the file does not exist.
+     * @throws IOException
+     */
+    public synchronized List<String> read() throws IOException {
+        return read(path);
+    }
+
+    private static List<String> read(Path path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if(!Files.exists(path)){
+            return lines;
+        }
+        String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        int start = 0;
+        int end;
+        while((end = text.indexOf('\n', start)) >= 0){
+            String line = text.substring(start, end);
+            // files written by hand may have windows line breaks.
+            if(line.endsWith("\r")){
+                line = line.substring(0, line.length() - 1);
+            }
+            lines.add(line);
+            start = end + 1;
+        }
+        if(start < text.length()){
+            // no line break at the end.
+            lines.add(text.substring(start));
+        }
+        return lines;
+    }
+}
@@ -104,14 +104,16 @@ public class Propagator {
         CoNLLNerReader cnr = new CoNLLNerReader(infolder);
         while(cnr.hasNext()){
             TextAnnotation ta = cnr.next();
-            View ner = ta.getView(ViewNames.NER_CONLL);
+            SpanIndex ner = new SpanIndex(ta.getView(ViewNames.NER_CONLL));
+            // each document is only used once, so there is no point in sharing its index.
+            TokenIndex index = new TokenIndex(ta.getTokens());
 
             int i = 1;
             for(String surface : rules.keySet()){
 
 
 
-                List<IntPair> spans = ta.getSpansMatching(surface);
+                List<IntPair> spans = index.getSpansMatching(surface);
 
                 String maxlabel = Collections.max(rules.get(surface).entrySet(), (entry1, entry2) -> entry1.getValue() - entry2.getValue()).getKey();
 
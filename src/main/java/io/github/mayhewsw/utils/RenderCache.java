@@ -0,0 +1,132 @@
+package io.github.mayhewsw.utils;
+
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rendered HTML for parts of documents, so that a page that is loaded again (or a document where one span has
+ * changed) does not have to be rendered from scratch. This is used by {@link HtmlGenerator}, one entry per sentence.
+ *
+ * An entry is keyed by the document and a string, which must describe everything else the HTML depends on: the
+ * display flags, the query, the dictionary version, and the spans in that part of the document. Since the spans are
+ * part of the key, an entry never goes out of date; it just stops being used. Entries of a document are dropped
+ * when it is garbage collected (see {@link WeakIdentityCache}).
+ *
+ * The cache holds at most MAXCHARS characters of HTML, and drops the least recently used entries first.
+ */
+public class RenderCache {
+
+    private static final long MAXCHARS = 32 * 1024 * 1024;
+
+    // maps from document to a stand-in for it in the keys of entries, so that entries do not keep it in memory.
+    private static final WeakIdentityCache<Object> docs = new WeakIdentityCache<>(RenderCache::drop);
+    private static final LinkedHashMap<Key, String> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private static long chars;
+
+    private static long hits;
+    private static long misses;
+    private static long evictions;
+
+    private static class Key {
+        private final Object doc;
+        private final String rest;
+
+        Key(Object doc, String rest){
+            this.doc = doc;
+            this.rest = rest;
+        }
+
+        @Override
+        public int hashCode(){
+            return System.identityHashCode(doc) * 31 + rest.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(this == o) return true;
+            if(!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return doc == k.doc && rest.equals(k.rest);
+        }
+    }
+
+    /**
+     * @param ta
+     * @param key
+     * @return the HTML stored for this document and key, or null.
+     */
+    public static synchronized String get(TextAnnotation ta, String key){
+        Object doc = docs.get(ta);
+        String html = doc == null ? null : entries.get(new Key(doc, key));
+        if(html == null){
+            misses++;
+        }else{
+            hits++;
+        }
+        return html;
+    }
+
+    /**
+     * Store HTML for this document and key, dropping old entries if the cache is full.
+     * @param ta
+     * @param key
+     * @param html
+     */
+    public static synchronized void put(TextAnnotation ta, String key, String html){
+        if(html.length() > MAXCHARS){
+            return;
+        }
+        Object doc = docs.computeIfAbsent(ta, t -> new Object());
+        String old = entries.put(new Key(doc, key), html);
+        if(old != null){
+            chars -= old.length();
+        }
+        chars += html.length();
+
+        Iterator<String> it = entries.values().iterator();
+        while(chars > MAXCHARS && it.hasNext()){
+            chars -= it.next().length();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drop the entries of a document that has been garbage collected. This is only called from docs, which is
+     * only used while holding the lock of this class.
+     */
+    private static void drop(Object doc){
+        Iterator<Map.Entry<Key, String>> it = entries.entrySet().iterator();
+        while(it.hasNext()){
+            Map.Entry<Key, String> e = it.next();
+            if(e.getKey().doc == doc){
+                chars -= e.getValue().length();
+                it.remove();
+            }
+        }
+    }
+
+    public static synchronized void clear(){
+        entries.clear();
+        docs.clear();
+        chars = 0;
+    }
+
+    /**
+     * Counts for monitoring: hits, misses, evictions, the hit rate, and the current size.
+     * @return
+     */
+    public static synchronized Map<String, Object> stats(){
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("hits", hits);
+        ret.put("misses", misses);
+        ret.put("evictions", evictions);
+        ret.put("hitrate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        ret.put("entries", entries.size());
+        ret.put("chars", chars);
+        return ret;
+    }
+}
@@ -0,0 +1,165 @@
+package io.github.mayhewsw.utils;
+
+import cz.jirutka.unidecode.Unidecode;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.Constituent;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+import io.github.mayhewsw.controllers.Common;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Romanized tokens of documents. If a document has a ROMANIZATION view, the tokens come from there. Otherwise,
+ * each token is romanized with unidecode.
+ *
+ * Unidecode results are kept per word type, shared by all documents, and the romanized tokens of a document are
+ * kept for as long as the document is in memory. Tokens never change, so neither goes out of date. A snapshot
+ * can also carry the romanized tokens of each document (see {@link #main(String[])}), in which case they are
+ * handed over with {@link #put} when the document is read.
+ */
+public class Romanizer {
+
+    private static Logger logger = LoggerFactory.getLogger(Romanizer.class);
+
+    public static final String VIEWNAME = "ROMANIZATION";
+
+    // above this many word types, new types are romanized every time.
+    private static final int MAXTYPES = 1 << 20;
+
+    private static final Unidecode unidecode = Unidecode.toAscii();
+    private static final ConcurrentHashMap<String, String> types = new ConcurrentHashMap<>();
+
+    // maps from document to its romanized tokens.
+    private static final WeakIdentityCache<String[]> documents = new WeakIdentityCache<>();
+
+    /**
+     * Romanize one word with unidecode.
+     * @param word
+     * @return
+     */
+    public static String romanize(String word){
+        String roman = types.get(word);
+        if(roman == null){
+            // unidecode loads its tables lazily, without locking.
+            synchronized (unidecode) {
+                roman = unidecode.decode(word);
+            }
+            if(types.size() < MAXTYPES){
+                types.putIfAbsent(word, roman);
+            }
+        }
+        return roman;
+    }
+
+    /**
+     * The romanized tokens of a document, computed the first time they are needed. The array is shared, so
+     * do not modify it.
+     * @param ta
+     * @return one romanized string per token.
+     */
+    public static String[] romanize(TextAnnotation ta){
+        String[] roman = documents.get(ta);
+        if(roman == null){
+            roman = compute(ta);
+            put(ta, roman);
+        }
+        return roman;
+    }
+
+    /**
+     * The romanization of a single token, without romanizing the whole document if that has not been done yet.
+     * @param ta
+     * @param t token index
+     * @return
+     */
+    public static String romanize(TextAnnotation ta, int t){
+        String[] roman = documents.get(ta);
+        if(roman != null){
+            return roman[t];
+        }
+        if(ta.hasView(VIEWNAME)){
+            List<Constituent> cs = ta.getView(VIEWNAME).getConstituents();
+            return t < cs.size() ? fromLabel(cs.get(t).getLabel()) : ta.getToken(t);
+        }
+        return romanize(ta.getToken(t));
+    }
+
+    /**
+     * Keep these romanized tokens for this document, for example because they were read from a snapshot.
+     * @param ta
+     * @param roman one romanized string per token. If there are fewer, the rest are the original tokens.
+     */
+    public static void put(TextAnnotation ta, String[] roman){
+        if(roman.length < ta.size()){
+            roman = pad(ta, roman, roman.length);
+        }
+        documents.put(ta, roman);
+    }
+
+    private static String[] compute(TextAnnotation ta){
+        if(ta.hasView(VIEWNAME)){
+            // the view can have fewer constituents than there are tokens: the rest stay as they are.
+            List<Constituent> cs = ta.getView(VIEWNAME).getConstituents();
+            int n = Math.min(cs.size(), ta.size());
+            String[] roman = new String[n];
+            for(int i = 0; i < n; i++){
+                roman[i] = fromLabel(cs.get(i).getLabel());
+            }
+            return pad(ta, roman, n);
+        }
+
+        String[] tokens = ta.getTokens();
+        String[] roman = new String[tokens.length];
+        for(int t = 0; t < tokens.length; t++){
+            roman[t] = romanize(tokens[t]);
+        }
+        return roman;
+    }
+
+    // a copy of roman with ta.size() entries, where the ones from n on are the original tokens.
+    private static String[] pad(TextAnnotation ta, String[] roman, int n){
+        String[] ret = Arrays.copyOf(roman, ta.size());
+        for(int t = n; t < ret.length; t++){
+            ret[t] = ta.getToken(t);
+        }
+        return ret;
+    }
+
+    // labels are kept as one token each.
+    private static String fromLabel(String label){
+        String romantext = label.replace(" ", "_");
+        if (romantext.length() == 0){
+            romantext = "_";
+        }
+        return romantext;
+    }
+
+    /**
+     * Write the snapshot of a folder with the romanized tokens of every document, so that the server does not
+     * have to romanize them. Run this offline, before starting the server.
+     *
+     * Usage: Romanizer foldertype folder
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if(args.length != 2){
+            System.err.println("Usage: Romanizer foldertype folder");
+            System.err.println("foldertype is " + Common.FOLDERCONLL + " or " + Common.FOLDERCOLUMN);
+            System.exit(1);
+        }
+
+        DocumentStore store = new DocumentStore(args[0], args[1], true);
+        Map<String, Exception> errors = store.writeSnapshot(true, Runtime.getRuntime().availableProcessors());
+        for(String id : errors.keySet()){
+            logger.error("Could not read " + id + ": " + errors.get(id).getMessage());
+        }
+        if(!errors.isEmpty()){
+            System.exit(1);
+        }
+    }
+}
@@ -5,23 +5,20 @@ import edu.illinois.cs.cogcomp.core.datastructures.textannotation.Constituent;
 import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
 import edu.illinois.cs.cogcomp.core.datastructures.textannotation.View;
 import edu.illinois.cs.cogcomp.core.utilities.SerializationHelper;
-import edu.illinois.cs.cogcomp.nlp.corpusreaders.CoNLLNerReader;
 import io.github.mayhewsw.controllers.SentenceController;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.*;
-import org.apache.lucene.store.FSDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 
@@ -31,29 +28,167 @@ import java.util.Set;
  * of sentence constituents must be done through this map. All other data structures only store references
  * via sentence ids.
  *
+ * The cache is bounded: it holds at most maxdocs documents and maxqueries query results, and evicts the least
+ * recently used. All sentences of a document are evicted together. Documents with unsaved edits must be pinned
+ * (see {@link #pin(String)}) so they are never evicted. Evicted documents are reloaded from the user annotation
+ * folder if they have been saved there, and from the original folder otherwise.
+ *
+ * Original documents and the index searcher come from {@link CorpusService}, and are shared with every other
+ * session. Sentences from shared documents must not be modified: use {@link #getSentenceForEdit(String)}, which
+ * gives this session its own copy of the document first.
+ *
  * Created by mayhew2 on 5/18/17.
  */
 public class SentenceCache extends HashMap<String, Constituent> {
 
     private static Logger logger = LoggerFactory.getLogger(SentenceCache.class);
     private final String folderpath;
+    private final String annofolder;
+
+    public static final int DEFAULT_MAXDOCS = 1000;
+    public static final int DEFAULT_MAXQUERIES = 500;
+
+    private final int maxdocs;
+    private final int maxqueries;
+
+    // maps from docid to the ids of its sentences in this cache, in access order.
+    private final LinkedHashMap<String, HashSet<String>> docs;
+    // docids that must not be evicted.
+    private final HashSet<String> pinned;
+    // docids whose document belongs to this session only (everything else is shared).
+    private final HashSet<String> owned;
+
+    // ordinals of the sentences in this index. Every SentenceSet from this cache uses these.
+    private final SentenceIds sentenceids = new SentenceIds();
 
-    HashMap<String, HashSet<String>> allresults;
-    HashMap<String, HashSet<String>> alltexts;
+    // maps from query to the sentences containing it.
+    LinkedHashMap<String, SentenceSet> allresults;
     public HashMap<String, String> sentid2text;
     public HashMap<String, String> sentid2origtext;
     private IndexSearcher searcher;
 
-    public SentenceCache(String folderpath, String indexdir) throws IOException {
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long queryhits = 0;
+    private long querymisses = 0;
+    private long queryevictions = 0;
+
+    public SentenceCache(String folderpath, String indexdir) throws Exception {
+        this(folderpath, null, indexdir, DEFAULT_MAXDOCS, DEFAULT_MAXQUERIES);
+    }
+
+    /**
+     * @param folderpath folder of original documents
+     * @param annofolder folder of documents saved by this user (may be null)
+     * @param indexdir lucene index of sentences
+     * @param maxdocs maximum number of unpinned documents to hold
+     * @param maxqueries maximum number of query results to hold
+     * @throws Exception
+     */
+    public SentenceCache(String folderpath, String annofolder, String indexdir, int maxdocs, int maxqueries) throws Exception {
         this.folderpath = folderpath;
-        this.allresults = new HashMap<>();
-        this.alltexts = new HashMap<>();
+        this.annofolder = annofolder;
+        this.maxdocs = Math.max(maxdocs, 1);
+        this.maxqueries = Math.max(maxqueries, 1);
+        this.docs = new LinkedHashMap<>(16, 0.75f, true);
+        this.pinned = new HashSet<>();
+        this.owned = new HashSet<>();
+        this.allresults = new LinkedHashMap<String, SentenceSet>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SentenceSet> eldest) {
+                if(size() > SentenceCache.this.maxqueries){
+                    queryevictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
         this.sentid2text = new HashMap<>();
         this.sentid2origtext = new HashMap<>();
 
+        searcher = CorpusService.getSearcher(indexdir);
+    }
+
+    /**
+     * Sentence ids are of the form docname:sentenceindex.
+     * @param sentid
+     * @return the docname
+     */
+    private static String getDocId(String sentid){
+        return sentid.substring(0, sentid.lastIndexOf(":"));
+    }
+
+    /**
+     * Put a sentence in the cache. This will overwrite whatever was previously there.
+     * @param sentid
+     * @param sent
+     * @return
+     */
+    @Override
+    public Constituent put(String sentid, Constituent sent) {
+        docs.computeIfAbsent(getDocId(sentid), k -> new HashSet<>()).add(sentid);
+        Constituent ret = super.put(sentid, sent);
+        evict(getDocId(sentid));
+        return ret;
+    }
+
+    /**
+     * Mark the document containing this sentence as having unsaved edits. It will not be evicted until it is unpinned.
+     * @param sentid
+     */
+    public void pin(String sentid){
+        pinned.add(getDocId(sentid));
+    }
 
-        IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(indexdir)));
-        searcher = new IndexSearcher(reader);
+    /**
+     * Call this once the document containing this sentence has been saved.
+     * @param sentid
+     */
+    public void unpin(String sentid){
+        pinned.remove(getDocId(sentid));
+    }
+
+    /**
+     * Evict least recently used documents until there are at most maxdocs. Pinned documents are skipped.
+     * @param keep a document that must not be evicted (usually the one being added)
+     */
+    private void evict(String keep){
+        if(docs.size() <= maxdocs){
+            return;
+        }
+
+        Iterator<Map.Entry<String, HashSet<String>>> iter = docs.entrySet().iterator();
+        while(docs.size() > maxdocs && iter.hasNext()){
+            Map.Entry<String, HashSet<String>> entry = iter.next();
+            if(pinned.contains(entry.getKey()) || entry.getKey().equals(keep)){
+                continue;
+            }
+            for(String sentid : entry.getValue()){
+                super.remove(sentid);
+            }
+            owned.remove(entry.getKey());
+            iter.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Hit, miss, and eviction counts for sentences (by document) and query results.
+     * @return
+     */
+    public LinkedHashMap<String, Long> getStats(){
+        LinkedHashMap<String, Long> stats = new LinkedHashMap<>();
+        stats.put("docs", (long) docs.size());
+        stats.put("pinned", (long) pinned.size());
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("queries", (long) allresults.size());
+        stats.put("queryhits", queryhits);
+        stats.put("querymisses", querymisses);
+        stats.put("queryevictions", queryevictions);
+        return stats;
     }
 
     /**
@@ -68,23 +203,27 @@ public class SentenceCache extends HashMap<String, Constituent> {
      * @throws FileNotFoundException
      */
     public Constituent getSentence(String sentid) throws Exception {
-        if(!this.containsKey(sentid)){
-            String fileid = sentid.split(":")[0];
-
-            //TextAnnotation ta = new CoNLLNerReader(new File(folderpath, fileid).getAbsolutePath()).next();
-            TextAnnotation ta = SerializationHelper.deserializeTextAnnotationFromFile(new File(folderpath, fileid).getAbsolutePath(), true);
-
-            // I got tired of checking every TA to see if it has the NER_CONLL view...
-            if(!ta.hasView(ViewNames.NER_CONLL)){
-                View ner = new View(ViewNames.NER_CONLL, "SentenceController",ta,1.0);
-                ta.addView(ViewNames.NER_CONLL, ner);
-            }
-
-            View sentview = ta.getView(ViewNames.SENTENCE);
-            for(Constituent sent : sentview.getConstituents()){
-                String id = SentenceController.getSentId(sent);
-                if(!this.containsKey(id)) {
-                    this.put(id, sent);
+        String fileid = getDocId(sentid);
+
+        if(this.containsKey(sentid)){
+            hits++;
+            // this marks the document as recently used.
+            docs.get(fileid);
+        }else{
+            misses++;
+
+            // prefer the version that this user has saved.
+            if(annofolder != null && new File(annofolder, fileid).exists()){
+                File docfile = new File(annofolder, fileid);
+                addDocument(SerializationHelper.deserializeTextAnnotationFromFile(docfile.getAbsolutePath(), true));
+            }else {
+                TextAnnotation ta = CorpusService.getDocument(folderpath, fileid, maxdocs);
+                View sentview = ta.getView(ViewNames.SENTENCE);
+                for (Constituent sent : sentview.getConstituents()) {
+                    String id = SentenceController.getSentId(sent);
+                    if (!this.containsKey(id)) {
+                        this.put(id, sent);
+                    }
                 }
             }
         }
@@ -92,38 +231,78 @@ public class SentenceCache extends HashMap<String, Constituent> {
         return this.get(sentid);
     }
 
+    /**
+     * Same as {@link #getSentence(String)}, but the sentence belongs to this session, so it can be edited. The
+     * first time, this copies the shared document and replaces all of its sentences in the cache. This also pins
+     * the document.
+     * @param sentid
+     * @return
+     * @throws Exception
+     */
+    public Constituent getSentenceForEdit(String sentid) throws Exception {
+        Constituent sent = getSentence(sentid);
+        if(!owned.contains(getDocId(sentid))){
+            addDocument(CorpusService.copy(sent.getTextAnnotation()));
+        }
+        pin(sentid);
+        return this.get(sentid);
+    }
 
-    private void putQueryResult(String term, HashSet<String> queryids) {
+    /**
+     * Put all sentences of a document that belongs to this session (for example, one the user has
+     * saved) into the cache. This overwrites whatever was previously there.
+     * @param ta
+     */
+    public void addDocument(TextAnnotation ta){
+        CorpusService.prepare(ta);
+        View sentview = ta.getView(ViewNames.SENTENCE);
+        for(Constituent sent : sentview.getConstituents()){
+            String id = SentenceController.getSentId(sent);
+            owned.add(getDocId(id));
+            this.put(id, sent);
+        }
+    }
+
+
+    private void putQueryResult(String term, SentenceSet queryids) {
         this.allresults.put(term, queryids);
     }
 
 
-    public HashSet<String> getAllResults(String term) throws IOException {
+    public SentenceSet getAllResults(String term) throws IOException {
         return getAllResults(term, false);
     }
 
     /**
      * Get all sentence ids in the corpus which contain this term. If they are not loaded in the cache,
-     * this will lazily load them.
+     * this will lazily load them. The set is shared, so do not modify it.
      * @param term
      * @return
      * @throws IOException
      */
-    public HashSet<String> getAllResults(String term, boolean exact) throws IOException {
-        if(this.allresults.get(term) == null){
-            load(term, exact);
+    public SentenceSet getAllResults(String term, boolean exact) throws IOException {
+        SentenceSet results = this.allresults.get(term);
+        if(results == null){
+            querymisses++;
+            results = load(term, exact);
+        }else{
+            queryhits++;
         }
-        return this.allresults.get(term);
+        return results;
     }
 
-    public HashSet<String> getAllTexts(String term, boolean exact) throws IOException {
-        if(this.alltexts.get(term) == null){
-            load(term, exact);
-        }
-        return this.alltexts.get(term);
+    public SentenceSet getAllTexts(String term, boolean exact) throws IOException {
+        return getAllResults(term, exact);
     }
 
     
+    /**
+     * @return the sentence ordinals of this index. Sets that are combined with query results should use these.
+     */
+    public SentenceIds getSentenceIds(){
+        return sentenceids;
+    }
+
     public Set<String> getAllKeys(){
         return this.allresults.keySet();
     }
@@ -136,20 +315,17 @@ public class SentenceCache extends HashMap<String, Constituent> {
      * @param k  @return
      * @throws IOException
      */
-    public HashSet<String> gatherTopK(String term, HashSet<String> allgroups, int k) throws Exception {
+    public SentenceSet gatherTopK(String term, SentenceSet allgroups, int k) throws Exception {
         // at the very least, we need to have all the results from this term.
 
-        // copy allgroups so we never modify it.
-        HashSet<String> allgroupsintersection = new HashSet<>(allgroups);
-
         // this is what we will return.
-        HashSet<String> displaylist = new HashSet<>();
+        SentenceSet displaylist = new SentenceSet(sentenceids);
 
         // this is the full set of sentences containing this term.
-        HashSet<String> fulllist = this.getAllResults(term);
+        SentenceSet fulllist = this.getAllResults(term);
 
-        // allgroups will contain only those sentences that contain term, and which are already in groups.
-        allgroupsintersection.retainAll(fulllist);
+        // only those sentences that contain term, and which are already in groups.
+        SentenceSet allgroupsintersection = SentenceSet.and(allgroups, fulllist);
 
         for(String sentid : allgroupsintersection){
             if(displaylist.size() >= k) break;
@@ -162,11 +338,17 @@ public class SentenceCache extends HashMap<String, Constituent> {
             return displaylist;
         }
 
-        // the set of already loaded sentences is the keys of the cache.
-        HashSet<String> loadedsents = new HashSet<>(this.keySet());
-
         // loadedsents will contain only those sentences which contain term, and which are already loaded.
-        loadedsents.retainAll(fulllist);
+        SentenceSet loadedsents = new SentenceSet(sentenceids);
+        if(this.size() < fulllist.size()) {
+            for (String sentid : this.keySet()) {
+                if (fulllist.contains(sentid)) loadedsents.add(sentid);
+            }
+        }else{
+            for (String sentid : fulllist) {
+                if (this.containsKey(sentid)) loadedsents.add(sentid);
+            }
+        }
 
         int maxsentsize = 50;
 
@@ -201,8 +383,8 @@ public class SentenceCache extends HashMap<String, Constituent> {
     }
 
 
-    private void load(String term) throws IOException {
-        load(term, false);
+    private SentenceSet load(String term) throws IOException {
+        return load(term, false);
     }
 
     /**
@@ -218,9 +400,10 @@ public class SentenceCache extends HashMap<String, Constituent> {
     /**
      * This loads a term from the index, and puts it into the query result datastructure.
      * @param term
+     * @return the ids of all sentences containing term
      * @throws IOException
      */
-    private void load(String term, boolean exact) throws IOException {
+    private SentenceSet load(String term, boolean exact) throws IOException {
 
         // if it's not exact, it searches for prefix queries.
         Query query;
@@ -230,35 +413,15 @@ public class SentenceCache extends HashMap<String, Constituent> {
             query = new PrefixQuery(new Term("body", term));
         }
 
-        // Assume a large text collection. We want to store EVERY SINGLE INSTANCE.
-        int k = Integer.MAX_VALUE;
-        TopDocs searchresults = searcher.search(query, k);
-        ScoreDoc[] hits = searchresults.scoreDocs;
-
-        HashSet<String> queryids = new HashSet<>();
-        //HashSet<String> querytexts = new HashSet<>();
-
-        for (int i = 0; i < hits.length; ++i) {
-            int luceneId = hits[i].doc;
-            Document d = searcher.doc(luceneId);
-
-            String sentid = d.get("filename");
-
-            // This avoids have discussion forum results (which can be noisy) and huge files.
-            int sentind = Integer.parseInt(sentid.split(":")[1]);
-            if(sentid.contains("_DF_") || sentind > 200){
-                continue;
-            }
-
-            //querytexts.add(d.get("body"));
-            queryids.add(sentid);
-            //this.sentid2text.put(sentid, d.get("body"));
-            //this.sentid2origtext.put(sentid, d.get("origbody"));
-        }
+        // Assume a large text collection. We want to store EVERY SINGLE INSTANCE, so we
+        // collect all hits without scoring them.
+        SentenceIdCollector collector = new SentenceIdCollector(sentenceids);
+        searcher.search(query, collector);
+        SentenceSet queryids = collector.getResults();
 
         //logger.debug("Found {} results for term {}", queryids.size(), term);
 
         this.putQueryResult(term, queryids);
-        this.alltexts.put(term, queryids);
+        return queryids;
     }
 }
@@ -0,0 +1,144 @@
+package io.github.mayhewsw.utils;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A non-scoring collector that gathers the ids of all matching sentences. This is meant to be used
+ * instead of searching for the top Integer.MAX_VALUE hits, which allocates a huge priority queue and loads
+ * the stored fields of every hit.
+ *
+ * Sentence ids are read from the "filename" doc values, and the sentence index from the "sentind" doc
+ * values (see {@link io.github.mayhewsw.TextFileIndexer#getSentenceDocuments}). Each segment keeps a bitset
+ * of matching ordinals, so every distinct sentence id is only looked up once. Indexes built before these
+ * doc values existed fall back to loading the stored "filename" field.
+ *
+ * Results are a {@link SentenceSet} over the given {@link SentenceIds}. The ordinal of each sentence id in a
+ * segment is remembered there for as long as the segment is open, so later queries map segment ordinals straight to sentence
+ * ordinals, without looking up or hashing any strings.
+ *
+ * This skips discussion forum results (which can be noisy) and sentences far into huge files.
+ */
+public class SentenceIdCollector extends SimpleCollector {
+
+    /** Sentences with an index larger than this are skipped. */
+    public static final int MAXSENTIND = 200;
+
+    private final SentenceIds sentenceids;
+
+    // sentence ordinals of results, in no order.
+    private int[] results = new int[64];
+    private int numresults = 0;
+
+    // one entry per segment that had doc values.
+    private final List<SortedDocValues> leafids = new ArrayList<>();
+    private final List<FixedBitSet> leafords = new ArrayList<>();
+    private final List<int[]> leafmaps = new ArrayList<>();
+
+    private LeafReader reader;
+    private SortedDocValues ids;
+    private NumericDocValues sentinds;
+    private FixedBitSet ords;
+
+    public SentenceIdCollector(SentenceIds sentenceids){
+        this.sentenceids = sentenceids;
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        reader = context.reader();
+
+        FieldInfo idinfo = reader.getFieldInfos().fieldInfo("filename");
+        FieldInfo indinfo = reader.getFieldInfos().fieldInfo("sentind");
+
+        if(idinfo != null && idinfo.getDocValuesType() == DocValuesType.SORTED &&
+                indinfo != null && indinfo.getDocValuesType() == DocValuesType.NUMERIC) {
+            ids = DocValues.getSorted(reader, "filename");
+            sentinds = DocValues.getNumeric(reader, "sentind");
+            ords = new FixedBitSet(Math.max(ids.getValueCount(), 1));
+            leafids.add(ids);
+            leafords.add(ords);
+            int numvalues = ids.getValueCount();
+            leafmaps.add(sentenceids.segmentOrds(reader.getCoreCacheKey(), numvalues));
+        }else{
+            ids = null;
+            sentinds = null;
+            ords = null;
+        }
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        if(ids != null){
+            if(sentinds.get(doc) > MAXSENTIND){
+                return;
+            }
+            int ord = ids.getOrd(doc);
+            if(ord >= 0) {
+                ords.set(ord);
+            }
+        }else{
+            // old index: this is slow.
+            Document d = reader.document(doc);
+            String sentid = d.get("filename");
+            int sentind = Integer.parseInt(sentid.split(":")[1]);
+            if(keep(sentid) && sentind <= MAXSENTIND){
+                addResult(sentenceids.intern(sentid));
+            }
+        }
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+
+    private void addResult(int sentord){
+        if(numresults == results.length){
+            results = Arrays.copyOf(results, numresults * 2);
+        }
+        results[numresults++] = sentord;
+    }
+
+    /**
+     * Resolve the collected ordinals to sentences. Call this once, after searching.
+     * @return the set of matching sentences.
+     */
+    public SentenceSet getResults(){
+        for(int i = 0; i < leafids.size(); i++){
+            SortedDocValues leaf = leafids.get(i);
+            FixedBitSet bits = leafords.get(i);
+            int[] map = leafmaps.get(i);
+
+            for(int ord = bits.nextSetBit(0); ord < bits.length(); ord = bits.nextSetBit(ord + 1)){
+                // other threads may fill this in at the same time, but they all write the same value.
+                int sentord = map[ord];
+                if(sentord == 0){
+                    String sentid = leaf.lookupOrd(ord).utf8ToString();
+                    sentord = keep(sentid) ? sentenceids.intern(sentid) + 1 : -1;
+                    map[ord] = sentord;
+                }
+                if(sentord > 0) {
+                    addResult(sentord - 1);
+                }
+                if(ord + 1 >= bits.length()) break;
+            }
+        }
+        leafids.clear();
+        leafords.clear();
+        leafmaps.clear();
+
+        SentenceSet ret = SentenceSet.fromOrds(sentenceids, results, numresults);
+        numresults = 0;
+        return ret;
+    }
+
+    private static boolean keep(String sentid){
+        return !sentid.contains("_DF_");
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.mayhewsw.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dense integer ordinals for sentence ids, so that sets of sentences can be bitmaps (see {@link SentenceSet}).
+ * The first sentence id seen gets 0, the next 1, and so on. Ordinals never change.
+ *
+ * Each {@link SentenceCache} has its own SentenceIds, since groups and query results never mix datasets. This
+ * keeps the ordinals of one dataset dense, starting at 0, however many other datasets the server has loaded, and
+ * the table goes away with the cache.
+ *
+ * Sentence ids from the index are interned once per segment (see {@link SentenceIdCollector}), so each id is
+ * only hashed the first time any query returns it.
+ */
+public class SentenceIds {
+
+    private final ConcurrentHashMap<String, Integer> ords = new ConcurrentHashMap<>();
+
+    // maps from ordinal to sentence id. Only grows, and is replaced by a larger copy when full.
+    private volatile String[] ids = new String[1024];
+    private int count;
+
+    // maps from index segment to the ordinal of each of its sentence ids, plus one. 0 means not looked up yet,
+    // and -1 means skipped.
+    private final Map<Object, int[]> segmentords = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * @param sentid
+     * @return the ordinal of this sentence id, assigning a new one if this is the first request.
+     */
+    public int intern(String sentid){
+        Integer ord = ords.get(sentid);
+        if(ord != null){
+            return ord;
+        }
+        synchronized (this) {
+            ord = ords.get(sentid);
+            if(ord != null){
+                return ord;
+            }
+            String[] current = ids;
+            if(count == current.length){
+                current = Arrays.copyOf(current, count * 2);
+            }
+            current[count] = sentid;
+            ids = current;
+            ords.put(sentid, count);
+            return count++;
+        }
+    }
+
+    /**
+     * @param sentid
+     * @return the ordinal of this sentence id, or -1 if it has never been interned.
+     */
+    public int find(String sentid){
+        Integer ord = ords.get(sentid);
+        return ord == null ? -1 : ord;
+    }
+
+    /**
+     * @param ord an ordinal returned by {@link #intern(String)}
+     * @return the sentence id.
+     */
+    public String get(int ord){
+        return ids[ord];
+    }
+
+    public int size(){
+        return ords.size();
+    }
+
+    /**
+     * @param segment the core cache key of an index segment
+     * @param numvalues the number of distinct sentence ids in the segment
+     * @return the memo of sentence ordinals for this segment, kept for as long as the segment is open.
+     */
+    int[] segmentOrds(Object segment, int numvalues){
+        return segmentords.computeIfAbsent(segment, k -> new int[numvalues]);
+    }
+}
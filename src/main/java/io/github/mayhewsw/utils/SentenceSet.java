@@ -0,0 +1,442 @@
+package io.github.mayhewsw.utils;
+
+import java.util.*;
+
+/**
+ * A set of sentence ids, stored as their ordinals in one {@link SentenceIds}. A set is either a sorted int array
+ * or a bitmap, whichever is smaller: once it holds more than one ordinal in 32 of its range, the bitmap wins. This
+ * is the trade-off Roaring bitmaps make per chunk of 2^16 ordinals, made here once for the whole set, since
+ * ordinals are dense.
+ *
+ * Intersections, unions and differences between two SentenceSets work on ordinals (and on whole 64-bit words
+ * between two bitmaps), without hashing or copying strings, as long as both sets use the same SentenceIds
+ * (otherwise they fall back to comparing strings). A SentenceSet is also a Set of String, so it can be used
+ * anywhere a HashSet of sentence ids was; only those methods look up or intern strings. Iteration is in order of
+ * ordinal.
+ *
+ * This is not thread safe.
+ */
+public class SentenceSet extends AbstractSet<String> {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final SentenceIds ids;
+
+    // sorted ordinals, when words is null. Only the first size entries are used.
+    private int[] array = EMPTY;
+    // the bitmap, or null.
+    private long[] words;
+    private int size;
+
+    public SentenceSet(SentenceIds ids){
+        this.ids = ids;
+    }
+
+    public SentenceSet(SentenceSet other){
+        ids = other.ids;
+        size = other.size;
+        if(other.words != null){
+            words = other.words.clone();
+        }else{
+            array = Arrays.copyOf(other.array, other.size);
+        }
+    }
+
+    /**
+     * @param ids
+     * @param ords ordinals in any order, with duplicates allowed. This array is sorted in place.
+     * @param n the number of ordinals to use
+     * @return a set of these ordinals.
+     */
+    public static SentenceSet fromOrds(SentenceIds ids, int[] ords, int n){
+        Arrays.sort(ords, 0, n);
+        int distinct = 0;
+        for(int i = 0; i < n; i++){
+            if(distinct == 0 || ords[i] != ords[distinct - 1]){
+                ords[distinct++] = ords[i];
+            }
+        }
+        SentenceSet set = new SentenceSet(ids);
+        set.array = Arrays.copyOf(ords, distinct);
+        set.size = distinct;
+        set.optimize();
+        return set;
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return a new set with the sentences in both a and b.
+     */
+    public static SentenceSet and(SentenceSet a, SentenceSet b){
+        SentenceSet ret = new SentenceSet(a.size <= b.size ? a : b);
+        ret.retainAll(a.size <= b.size ? b : a);
+        return ret;
+    }
+
+    // a bitmap is smaller than an array of size ints when it needs fewer than size/2 words.
+    private static boolean bitmapIsSmaller(int size, int maxord){
+        return size > 2 * ((maxord >>> 6) + 1);
+    }
+
+    private void toBitmap(){
+        long[] w = new long[size == 0 ? 1 : (array[size - 1] >>> 6) + 1];
+        for(int i = 0; i < size; i++){
+            w[array[i] >>> 6] |= 1L << array[i];
+        }
+        words = w;
+        array = EMPTY;
+    }
+
+    /**
+     * Switch to whichever representation is smaller.
+     */
+    private void optimize(){
+        if(words == null){
+            if(size > 0 && bitmapIsSmaller(size, array[size - 1])){
+                toBitmap();
+            }
+            return;
+        }
+
+        int last = words.length - 1;
+        while(last >= 0 && words[last] == 0){
+            last--;
+        }
+        int maxord = last < 0 ? 0 : last * 64 + 63 - Long.numberOfLeadingZeros(words[last]);
+        if(!bitmapIsSmaller(size, maxord)){
+            int[] a = new int[size];
+            int i = 0;
+            for(int ord = nextOrd(0); ord >= 0; ord = nextOrd(ord + 1)){
+                a[i++] = ord;
+            }
+            array = a;
+            words = null;
+        }else if(last + 1 < words.length){
+            words = Arrays.copyOf(words, last + 1);
+        }
+    }
+
+    private void ensureWords(int numwords){
+        if(words.length < numwords){
+            words = Arrays.copyOf(words, Math.max(numwords, words.length + (words.length >> 1)));
+        }
+    }
+
+    private int recount(){
+        int n = 0;
+        for(long w : words){
+            n += Long.bitCount(w);
+        }
+        return n;
+    }
+
+    public boolean containsOrd(int ord){
+        if(words != null){
+            int w = ord >>> 6;
+            return w < words.length && (words[w] & (1L << ord)) != 0;
+        }
+        return Arrays.binarySearch(array, 0, size, ord) >= 0;
+    }
+
+    public boolean addOrd(int ord){
+        if(words != null){
+            ensureWords((ord >>> 6) + 1);
+            long bit = 1L << ord;
+            if((words[ord >>> 6] & bit) != 0){
+                return false;
+            }
+            words[ord >>> 6] |= bit;
+            size++;
+            return true;
+        }
+
+        int i = Arrays.binarySearch(array, 0, size, ord);
+        if(i >= 0){
+            return false;
+        }
+        i = -i - 1;
+        if(size == array.length){
+            array = Arrays.copyOf(array, Math.max(4, size + (size >> 1)));
+        }
+        System.arraycopy(array, i, array, i + 1, size - i);
+        array[i] = ord;
+        size++;
+        if(bitmapIsSmaller(size, array[size - 1])){
+            toBitmap();
+        }
+        return true;
+    }
+
+    public boolean removeOrd(int ord){
+        if(words != null){
+            int w = ord >>> 6;
+            long bit = 1L << ord;
+            if(w >= words.length || (words[w] & bit) == 0){
+                return false;
+            }
+            words[w] &= ~bit;
+            size--;
+            return true;
+        }
+
+        int i = Arrays.binarySearch(array, 0, size, ord);
+        if(i < 0){
+            return false;
+        }
+        System.arraycopy(array, i + 1, array, i, size - i - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * @param from
+     * @return the smallest ordinal in this set that is at least from, or -1 if there is none.
+     */
+    public int nextOrd(int from){
+        if(from < 0){
+            from = 0;
+        }
+        if(words != null){
+            int w = from >>> 6;
+            if(w >= words.length){
+                return -1;
+            }
+            long word = words[w] & (-1L << from);
+            while(true){
+                if(word != 0){
+                    return w * 64 + Long.numberOfTrailingZeros(word);
+                }
+                if(++w >= words.length){
+                    return -1;
+                }
+                word = words[w];
+            }
+        }
+
+        int i = Arrays.binarySearch(array, 0, size, from);
+        if(i < 0){
+            i = -i - 1;
+        }
+        return i < size ? array[i] : -1;
+    }
+
+    /**
+     * Add every sentence in other.
+     * @return true if this set changed.
+     */
+    private boolean or(SentenceSet other){
+        int before = size;
+        if(other.size == 0){
+            return false;
+        }
+
+        if(words == null && other.words == null){
+            int[] merged = new int[size + other.size];
+            int i = 0, j = 0, n = 0;
+            while(i < size && j < other.size){
+                if(array[i] < other.array[j]){
+                    merged[n++] = array[i++];
+                }else if(array[i] > other.array[j]){
+                    merged[n++] = other.array[j++];
+                }else{
+                    merged[n++] = array[i++];
+                    j++;
+                }
+            }
+            while(i < size) merged[n++] = array[i++];
+            while(j < other.size) merged[n++] = other.array[j++];
+            array = merged;
+            size = n;
+            optimize();
+            return size != before;
+        }
+
+        if(words == null){
+            toBitmap();
+        }
+        if(other.words != null){
+            ensureWords(other.words.length);
+            for(int w = 0; w < other.words.length; w++){
+                words[w] |= other.words[w];
+            }
+            size = recount();
+        }else{
+            for(int j = 0; j < other.size; j++){
+                addOrd(other.array[j]);
+            }
+        }
+        return size != before;
+    }
+
+    /**
+     * Keep only the sentences that are also in other.
+     * @return true if this set changed.
+     */
+    private boolean and(SentenceSet other){
+        int before = size;
+        if(words != null && other.words != null){
+            int n = Math.min(words.length, other.words.length);
+            for(int w = 0; w < n; w++){
+                words[w] &= other.words[w];
+            }
+            Arrays.fill(words, n, words.length, 0L);
+            size = recount();
+            optimize();
+        }else if(words != null){
+            int[] a = new int[other.size];
+            int n = 0;
+            for(int j = 0; j < other.size; j++){
+                if(containsOrd(other.array[j])){
+                    a[n++] = other.array[j];
+                }
+            }
+            array = a;
+            size = n;
+            words = null;
+        }else{
+            int n = 0;
+            for(int i = 0; i < size; i++){
+                if(other.containsOrd(array[i])){
+                    array[n++] = array[i];
+                }
+            }
+            size = n;
+        }
+        return size != before;
+    }
+
+    /**
+     * Remove every sentence that is in other.
+     * @return true if this set changed.
+     */
+    private boolean andNot(SentenceSet other){
+        int before = size;
+        if(words != null && other.words != null){
+            int n = Math.min(words.length, other.words.length);
+            for(int w = 0; w < n; w++){
+                words[w] &= ~other.words[w];
+            }
+            size = recount();
+            optimize();
+        }else if(words != null){
+            for(int j = 0; j < other.size; j++){
+                removeOrd(other.array[j]);
+            }
+            optimize();
+        }else{
+            int n = 0;
+            for(int i = 0; i < size; i++){
+                if(!other.containsOrd(array[i])){
+                    array[n++] = array[i];
+                }
+            }
+            size = n;
+        }
+        return size != before;
+    }
+
+    public SentenceIds getIds(){
+        return ids;
+    }
+
+    // true if c is a SentenceSet with the same ordinals as this one.
+    private boolean sameIds(Collection<?> c){
+        return c instanceof SentenceSet && ((SentenceSet) c).ids == ids;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends String> c){
+        if(sameIds(c)){
+            return or((SentenceSet) c);
+        }
+        return super.addAll(c);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c){
+        if(sameIds(c)){
+            return and((SentenceSet) c);
+        }
+        return super.retainAll(c);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c){
+        if(sameIds(c)){
+            return andNot((SentenceSet) c);
+        }
+        boolean changed = false;
+        for(Object o : c){
+            changed |= remove(o);
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean contains(Object o){
+        if(!(o instanceof String)){
+            return false;
+        }
+        int ord = ids.find((String) o);
+        return ord >= 0 && containsOrd(ord);
+    }
+
+    @Override
+    public boolean add(String sentid){
+        return addOrd(ids.intern(sentid));
+    }
+
+    @Override
+    public boolean remove(Object o){
+        if(!(o instanceof String)){
+            return false;
+        }
+        int ord = ids.find((String) o);
+        return ord >= 0 && removeOrd(ord);
+    }
+
+    @Override
+    public void clear(){
+        array = EMPTY;
+        words = null;
+        size = 0;
+    }
+
+    @Override
+    public int size(){
+        return size;
+    }
+
+    @Override
+    public Iterator<String> iterator(){
+        return new Iterator<String>() {
+            private int next = nextOrd(0);
+            private int last = -1;
+
+            @Override
+            public boolean hasNext(){
+                return next >= 0;
+            }
+
+            @Override
+            public String next(){
+                if(next < 0){
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = nextOrd(next + 1);
+                return ids.get(last);
+            }
+
+            @Override
+            public void remove(){
+                if(last < 0){
+                    throw new IllegalStateException();
+                }
+                removeOrd(last);
+                last = -1;
+            }
+        };
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.mayhewsw.utils;
+
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.Constituent;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.View;
+
+import java.util.*;
+
+/**
+ * The constituents of a view, indexed by position. {@link View#getConstituentsCoveringSpan(int, int)} and
+ * {@link View#getConstituentsCoveringToken(int)} look at every constituent, so asking about every token of a
+ * document is quadratic. Here, constituents are kept in a TreeMap by start token, and a query only looks at
+ * constituents that start at most maxlength tokens before the end of the span, where maxlength is the length of
+ * the longest constituent. Spans in a NER view are short, so a query takes O(log n + k).
+ *
+ * This wraps a view, and is only correct as long as every change to the view goes through
+ * {@link #addConstituent(Constituent)} and {@link #removeConstituent(Constituent)}. Make one when a method starts
+ * to work on a view, and use it for the rest of the method.
+ */
+public class SpanIndex {
+
+    private final View view;
+
+    // maps from start token to the constituents that start there.
+    private final TreeMap<Integer, List<Constituent>> starts;
+
+    // the length of the longest constituent ever added. This never shrinks, which is fine: it is only a bound.
+    private int maxlength;
+
+    public SpanIndex(View view){
+        this.view = view;
+        this.starts = new TreeMap<>();
+        for(Constituent c : view.getConstituents()){
+            index(c);
+        }
+    }
+
+    private void index(Constituent c){
+        starts.computeIfAbsent(c.getStartSpan(), k -> new ArrayList<>()).add(c);
+        maxlength = Math.max(maxlength, c.getEndSpan() - c.getStartSpan());
+    }
+
+    public View getView(){
+        return view;
+    }
+
+    /**
+     * All constituents that overlap the span [start, end), in order of start token.
+     * @param start
+     * @param end
+     * @return
+     */
+    public List<Constituent> getConstituentsCoveringSpan(int start, int end){
+        List<Constituent> ret = new ArrayList<>();
+        if(end <= start){
+            return ret;
+        }
+        for(List<Constituent> cs : starts.subMap(start - maxlength, true, end, false).values()){
+            for(Constituent c : cs){
+                if(c.getEndSpan() > start){
+                    ret.add(c);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * All constituents that contain this token, in order of start token.
+     * @param token
+     * @return
+     */
+    public List<Constituent> getConstituentsCoveringToken(int token){
+        return getConstituentsCoveringSpan(token, token + 1);
+    }
+
+    /**
+     * Add a constituent to the view and to the index.
+     * @param c
+     */
+    public void addConstituent(Constituent c){
+        view.addConstituent(c);
+        index(c);
+    }
+
+    /**
+     * Remove a constituent from the view and from the index.
+     * @param c
+     */
+    public void removeConstituent(Constituent c){
+        view.removeConstituent(c);
+        List<Constituent> cs = starts.get(c.getStartSpan());
+        if(cs != null){
+            cs.remove(c);
+            if(cs.isEmpty()){
+                starts.remove(c.getStartSpan());
+            }
+        }
+    }
+}
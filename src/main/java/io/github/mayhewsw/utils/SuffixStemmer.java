@@ -0,0 +1,149 @@
+package io.github.mayhewsw.utils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Removes stacked suffixes from words, as in agglutinative languages: with suffixes "liq", "lar" and "ning",
+ * "jungoliqlarning" becomes "jungo".
+ *
+ * The suffixes are kept in a trie over their reversed characters, so one walk backwards from the end of a word
+ * finds every suffix that matches there. The longest of these is removed, and the walk starts again from the new
+ * end, until no suffix matches. This takes time proportional to the length of the word, however many suffixes
+ * there are, and unlike {@link Utils#stem(String, List)}, the result does not depend on the order of the suffixes.
+ *
+ * Results are remembered, since the same surfaces come up again and again. Use {@link #get(List)} to share one
+ * stemmer (and its memory) between all sessions with the same suffixes.
+ */
+public class SuffixStemmer {
+
+    // above this many words, new words are stemmed every time.
+    private static final int MAXMEMO = 1 << 18;
+
+    // maps from suffix list to its stemmer.
+    private static final ConcurrentHashMap<List<String>, SuffixStemmer> shared = new ConcurrentHashMap<>();
+
+    // the trie. Node 0 is the root, and the edges out of node n are first[n] to first[n+1]-1, sorted by label.
+    private final int[] first;
+    private final char[] labels;
+    private final int[] targets;
+    // true if the path to this node spells a (reversed) suffix.
+    private final boolean[] terminal;
+
+    private final ConcurrentHashMap<String, String> memo = new ConcurrentHashMap<>();
+
+    /**
+     * Get the stemmer for these suffixes, building it if this is the first request.
+     * @param suffixes
+     * @return
+     */
+    public static SuffixStemmer get(List<String> suffixes){
+        return shared.computeIfAbsent(new ArrayList<>(suffixes), SuffixStemmer::new);
+    }
+
+    /**
+     * @param suffixes empty suffixes are ignored
+     */
+    public SuffixStemmer(Collection<String> suffixes){
+        // build with maps first, then flatten into arrays.
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<Boolean> ends = new ArrayList<>();
+        children.add(new TreeMap<>());
+        ends.add(false);
+
+        for(String suff : suffixes){
+            if(suff == null || suff.isEmpty()){
+                continue;
+            }
+            int n = 0;
+            for(int i = suff.length() - 1; i >= 0; i--){
+                Integer child = children.get(n).get(suff.charAt(i));
+                if(child == null){
+                    child = children.size();
+                    children.add(new TreeMap<>());
+                    ends.add(false);
+                    children.get(n).put(suff.charAt(i), child);
+                }
+                n = child;
+            }
+            ends.set(n, true);
+        }
+
+        int numnodes = children.size();
+        first = new int[numnodes + 1];
+        labels = new char[numnodes - 1];
+        targets = new int[numnodes - 1];
+        terminal = new boolean[numnodes];
+        int e = 0;
+        for(int n = 0; n < numnodes; n++){
+            first[n] = e;
+            terminal[n] = ends.get(n);
+            for(Map.Entry<Character, Integer> edge : children.get(n).entrySet()){
+                labels[e] = edge.getKey();
+                targets[e] = edge.getValue();
+                e++;
+            }
+        }
+        first[numnodes] = e;
+    }
+
+    /**
+     * @param n
+     * @param c
+     * @return the node reached from n by c, or -1 if there is none.
+     */
+    private int child(int n, char c){
+        int lo = first[n];
+        int hi = first[n + 1] - 1;
+        while(lo <= hi){
+            int mid = (lo + hi) >>> 1;
+            if(labels[mid] < c){
+                lo = mid + 1;
+            }else if(labels[mid] > c){
+                hi = mid - 1;
+            }else{
+                return targets[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * This removes all suffixes from a word, even if they are stacked, longest first.
+     * @param word
+     * @return
+     */
+    public String stem(String word){
+        String stem = memo.get(word);
+        if(stem == null){
+            stem = strip(word);
+            if(memo.size() < MAXMEMO){
+                memo.putIfAbsent(word, stem);
+            }
+        }
+        return stem;
+    }
+
+    private String strip(String word){
+        int end = word.length();
+        while(true) {
+            // the start of the longest suffix that ends at end.
+            int match = -1;
+            int n = 0;
+            for (int i = end - 1; i >= 0; i--) {
+                n = child(n, word.charAt(i));
+                if (n < 0) {
+                    break;
+                }
+                if (terminal[n]) {
+                    match = i;
+                }
+            }
+            if (match < 0) {
+                break;
+            }
+            end = match;
+        }
+        return word.substring(0, end);
+    }
+}
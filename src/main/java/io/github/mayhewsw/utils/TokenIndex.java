@@ -0,0 +1,123 @@
+package io.github.mayhewsw.utils;
+
+import edu.illinois.cs.cogcomp.core.datastructures.IntPair;
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+
+import java.util.*;
+
+/**
+ * The positions of every token in a document, so that all occurrences of a token sequence can be found without
+ * scanning the document. This replaces {@link TextAnnotation#getSpansMatching(String)}, which searches the raw
+ * text.
+ *
+ * Matching is on whole tokens: "New York" matches the tokens "New" "York", but never part of a token.
+ * Overlapping occurrences are all returned.
+ *
+ * Tokens never change once a document is created, so an index never goes out of date. Use {@link #get}, which
+ * builds the index for a document the first time it is needed, and keeps it for as long as the document is in
+ * memory.
+ */
+public class TokenIndex {
+
+    // maps from document to its index.
+    private static final WeakIdentityCache<TokenIndex> indices = new WeakIdentityCache<>();
+
+    private final String[] tokens;
+
+    // maps from token to its positions, in increasing order.
+    private final HashMap<String, int[]> positions;
+
+    /**
+     * Get the index of this document, building it if this is the first request.
+     * @param ta
+     * @return
+     */
+    public static TokenIndex get(TextAnnotation ta){
+        return indices.computeIfAbsent(ta, t -> new TokenIndex(t.getTokens()));
+    }
+
+    public TokenIndex(String[] tokens){
+        this.tokens = tokens;
+
+        HashMap<String, Integer> counts = new HashMap<>();
+        for(String token : tokens){
+            counts.merge(token, 1, Integer::sum);
+        }
+
+        positions = new HashMap<>(counts.size() * 2);
+        HashMap<String, Integer> filled = new HashMap<>(counts.size() * 2);
+        for(int i = 0; i < tokens.length; i++){
+            int[] pos = positions.get(tokens[i]);
+            if(pos == null){
+                pos = new int[counts.get(tokens[i])];
+                positions.put(tokens[i], pos);
+            }
+            int n = filled.getOrDefault(tokens[i], 0);
+            pos[n] = i;
+            filled.put(tokens[i], n + 1);
+        }
+    }
+
+    /**
+     * @param token
+     * @return the number of times this token occurs.
+     */
+    public int count(String token){
+        int[] pos = positions.get(token);
+        return pos == null ? 0 : pos.length;
+    }
+
+    /**
+     * Find every occurrence of this text.
+     * @param text tokens separated by whitespace
+     * @return the spans, in order.
+     */
+    public List<IntPair> getSpansMatching(String text){
+        return getSpansMatching(text.trim().split("\\s+"));
+    }
+
+    /**
+     * Find every occurrence of this token sequence. This only looks at the positions of the rarest token in
+     * the sequence, so it takes time proportional to the number of matches, not to the length of the document.
+     * @param seq
+     * @return the spans, in order.
+     */
+    public List<IntPair> getSpansMatching(String[] seq){
+        List<IntPair> spans = new ArrayList<>();
+        if(seq.length == 0){
+            return spans;
+        }
+
+        // anchor on the rarest token.
+        int anchor = 0;
+        int[] anchorpos = null;
+        for(int j = 0; j < seq.length; j++){
+            int[] pos = positions.get(seq[j]);
+            if(pos == null){
+                return spans;
+            }
+            if(anchorpos == null || pos.length < anchorpos.length){
+                anchor = j;
+                anchorpos = pos;
+            }
+        }
+
+        for(int p : anchorpos){
+            int start = p - anchor;
+            if(start < 0 || start + seq.length > tokens.length){
+                continue;
+            }
+            boolean match = true;
+            for(int j = 0; j < seq.length; j++){
+                if(j != anchor && !tokens[start + j].equals(seq[j])){
+                    match = false;
+                    break;
+                }
+            }
+            if(match){
+                spans.add(new IntPair(start, start + seq.length));
+            }
+        }
+        return spans;
+    }
+}
@@ -1,6 +1,5 @@
 package io.github.mayhewsw.utils;
 
-import cz.jirutka.unidecode.Unidecode;
 import edu.illinois.cs.cogcomp.core.datastructures.ViewNames;
 import edu.illinois.cs.cogcomp.core.datastructures.textannotation.Constituent;
 import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
@@ -55,29 +54,19 @@ public class Utils {
      * @return an array of words, romanized if available.
      */
     public static String[] getRomanTaToks(TextAnnotation ta){
-        String[] text;
-        if(ta.hasView("ROMANIZATION")){
-            View translit = ta.getView("ROMANIZATION");
-            StringBuilder sb = new StringBuilder();
-            for(Constituent c : translit.getConstituents()){
-                String romantext = c.getLabel().replace(" ", "_");
-                if (romantext.length() == 0){
-                    romantext = "_";
-                }
-                sb.append(romantext +" ");
-            }
-            text = sb.toString().trim().split(" ");
-        }else {
-
-            Unidecode unidecode = Unidecode.toAscii();
-
-            text = ta.getTokens().clone();
-            for(int t = 0; t < text.length; t++){
-                text[t] = unidecode.decode(text[t]);
-            }
-        }
+        return Romanizer.romanize(ta).clone();
+    }
 
-        return text;
+    /**
+     * The romanization of a single token, the same as getRomanTaToks(ta)[t], without romanizing the whole
+     * document.
+     *
+     * @param ta TextAnnotation
+     * @param t token index
+     * @return the romanized token.
+     */
+    public static String getRomanTok(TextAnnotation ta, int t){
+        return Romanizer.romanize(ta, t);
     }
 
     public static String[] getGoogleTaToks(TextAnnotation ta){
@@ -126,7 +115,8 @@ public class Utils {
 
 
     /**
-     * This removes all stems from a word, even if they are stacked.
+     * This removes all stems from a word, even if they are stacked. Each pass scans every suffix, and the
+     * result depends on their order. {@link SuffixStemmer} does the same in one pass, longest suffix first.
      * @param word
      * @param suffixes
      * @return
@@ -0,0 +1,109 @@
+package io.github.mayhewsw.utils;
+
+import edu.illinois.cs.cogcomp.core.datastructures.textannotation.TextAnnotation;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A value per document, for things that are derived from a document and never change, like its token index or
+ * its romanized tokens. Documents are compared by identity, and do not stay in memory for this: once a document
+ * is garbage collected, its value is dropped.
+ *
+ * This is thread safe. Each method holds the lock of the cache, including while computeIfAbsent computes a value.
+ * @param <V>
+ */
+public class WeakIdentityCache<V> {
+
+    private final HashMap<Key, V> values = new HashMap<>();
+    private final ReferenceQueue<TextAnnotation> collected = new ReferenceQueue<>();
+
+    // called with the value of each document that has been collected, or null.
+    private final Consumer<V> ondrop;
+
+    private static class Key extends WeakReference<TextAnnotation> {
+        private final int hash;
+
+        Key(TextAnnotation ta, ReferenceQueue<TextAnnotation> queue){
+            super(ta, queue);
+            this.hash = System.identityHashCode(ta);
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(this == o) return true;
+            if(!(o instanceof Key)) return false;
+            TextAnnotation ta = get();
+            return ta != null && ta == ((Key) o).get();
+        }
+    }
+
+    public WeakIdentityCache(){
+        this(null);
+    }
+
+    /**
+     * @param ondrop called with the value of each document that is dropped because it was garbage collected.
+     *               It runs while the cache is locked, in whichever thread calls into the cache next.
+     */
+    public WeakIdentityCache(Consumer<V> ondrop){
+        this.ondrop = ondrop;
+    }
+
+    /**
+     * @param ta
+     * @return the value for this document, or null.
+     */
+    public synchronized V get(TextAnnotation ta){
+        purge();
+        return values.get(new Key(ta, null));
+    }
+
+    public synchronized void put(TextAnnotation ta, V value){
+        purge();
+        values.put(new Key(ta, collected), value);
+    }
+
+    /**
+     * @param ta
+     * @param compute
+     * @return the value for this document, computing and storing it if there is none yet.
+     */
+    public synchronized V computeIfAbsent(TextAnnotation ta, Function<TextAnnotation, V> compute){
+        purge();
+        V value = values.get(new Key(ta, null));
+        if(value == null){
+            value = compute.apply(ta);
+            values.put(new Key(ta, collected), value);
+        }
+        return value;
+    }
+
+    public synchronized int size(){
+        purge();
+        return values.size();
+    }
+
+    public synchronized void clear(){
+        values.clear();
+    }
+
+    private void purge(){
+        Reference<? extends TextAnnotation> ref;
+        while((ref = collected.poll()) != null){
+            V value = values.remove(ref);
+            if(value != null && ondrop != null){
+                ondrop.accept(value);
+            }
+        }
+    }
+}